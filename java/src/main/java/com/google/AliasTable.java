@@ -0,0 +1,89 @@
+package com.google;
+
+import java.util.Random;
+
+/**
+ * A class used to draw indexes in proportion to their weights in constant time, using Vose's
+ * variant of Walker's alias method. Building the table is linear in the number of weights.
+ */
+class AliasTable {
+
+  private final double[] probability;
+  private final int[] alias;
+  private final double totalWeight;
+
+  /**
+   * Builds a table over the weights. Weights must be non-negative; indexes with a zero weight
+   * are never drawn.
+   */
+  AliasTable(double[] weights) {
+    int n = weights.length;
+    probability = new double[n];
+    alias = new int[n];
+    double total = 0;
+    for (double weight : weights) {
+      total += weight;
+    }
+    totalWeight = total;
+    if (total <= 0) {
+      return;
+    }
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int smallCount = 0;
+    int largeCount = 0;
+    int anyDrawable = 0;
+    for (int i = 0; i < n; i++) {
+      if (weights[i] > 0) {
+        anyDrawable = i;
+      }
+      probability[i] = weights[i] * n / total;
+      if (probability[i] < 1) {
+        small[smallCount++] = i;
+      } else {
+        large[largeCount++] = i;
+      }
+    }
+    while (smallCount > 0 && largeCount > 0) {
+      int less = small[--smallCount];
+      int more = large[--largeCount];
+      alias[less] = more;
+      probability[more] = probability[more] + probability[less] - 1;
+      if (probability[more] < 1) {
+        small[smallCount++] = more;
+      } else {
+        large[largeCount++] = more;
+      }
+    }
+    // Whatever is left over is only off by rounding error, so it keeps its own column, except
+    // that a zero weight must never be drawn.
+    while (largeCount > 0) {
+      probability[large[--largeCount]] = 1;
+    }
+    while (smallCount > 0) {
+      int less = small[--smallCount];
+      if (weights[less] > 0) {
+        probability[less] = 1;
+      } else {
+        probability[less] = 0;
+        alias[less] = anyDrawable;
+      }
+    }
+  }
+
+  /** Returns the number of indexes in the table. */
+  int size() {
+    return probability.length;
+  }
+
+  /** Returns true if every weight was zero, in which case nothing can be drawn. */
+  boolean isEmpty() {
+    return totalWeight <= 0;
+  }
+
+  /** Draws an index. Must not be called on an empty table. */
+  int sample(Random random) {
+    int column = random.nextInt(probability.length);
+    return random.nextDouble() < probability[column] ? column : alias[column];
+  }
+}
@@ -0,0 +1,268 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A class used to write and read catalogs in a block-compressed form of the videos.txt format.
+ *
+ * <p>The lines of the catalog are cut into blocks of about {@link #BLOCK_SIZE} bytes, ending at
+ * line boundaries, and each block is deflated on its own, so blocks can be inflated and parsed
+ * independently and in parallel. The file is the magic {@code VCB1}, the blocks, an index holding
+ * for every block its offset, compressed and raw lengths and the CRC-32 of its raw bytes, then
+ * the number of blocks, the offset of the index and the magic again. {@link CatalogSource}
+ * recognizes these files by their magic and trailer, and reads every block as one part.
+ */
+final class BlockCatalog {
+
+  static final int BLOCK_SIZE = 1 << 20;
+
+  private static final byte[] MAGIC = "VCB1".getBytes(StandardCharsets.US_ASCII);
+  private static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 4;
+  private static final int TRAILER_SIZE = 4 + 8 + MAGIC.length;
+
+  /** One block of a block catalog file. */
+  private static class Block implements CatalogSource.Part {
+    final Path file;
+    final long offset;
+    final int compressedLength;
+    final int rawLength;
+    final int crc;
+
+    Block(Path file, long offset, int compressedLength, int rawLength, int crc) {
+      this.file = file;
+      this.offset = offset;
+      this.compressedLength = compressedLength;
+      this.rawLength = rawLength;
+      this.crc = crc;
+    }
+
+    @Override
+    public BufferedReader open() throws IOException {
+      ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+      try (FileChannel channel = FileChannel.open(file)) {
+        readFully(channel, compressed, offset);
+      }
+      byte[] raw = new byte[rawLength];
+      Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(compressed.array());
+        int length = 0;
+        while (length < rawLength && !inflater.finished()) {
+          int inflated = inflater.inflate(raw, length, rawLength - length);
+          if (inflated == 0 && inflater.needsInput()) {
+            break;
+          }
+          length += inflated;
+        }
+        if (length != rawLength) {
+          throw new IOException("Truncated block at " + offset + " in " + file);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt block at " + offset + " in " + file, e);
+      } finally {
+        inflater.end();
+      }
+      CRC32 checksum = new CRC32();
+      checksum.update(raw);
+      if ((int) checksum.getValue() != crc) {
+        throw new IOException("Checksum mismatch in block at " + offset + " in " + file);
+      }
+      return CatalogSource.reader(new ByteArrayInputStream(raw));
+    }
+
+    @Override
+    public long rawSize() {
+      return rawLength;
+    }
+  }
+
+  private BlockCatalog() {
+  }
+
+  /**
+   * Returns whether the file is laid out as a block catalog: it starts and ends with the magic,
+   * and its trailer places the index right before itself.
+   */
+  static boolean isBlockCatalog(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      if (channel.size() < MAGIC.length + TRAILER_SIZE) {
+        return false;
+      }
+      ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+      readFully(channel, head, 0);
+      return Arrays.equals(head.array(), MAGIC) && readTrailer(channel) != null;
+    }
+  }
+
+  /** Reads the index of a block catalog and returns its blocks, in catalog order. */
+  static List<CatalogSource.Part> parts(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      if (channel.size() < MAGIC.length + TRAILER_SIZE) {
+        throw new IOException(file + " is too short to be a block catalog");
+      }
+      Trailer trailer = readTrailer(channel);
+      if (trailer == null) {
+        throw new IOException(file + " has a corrupt block index");
+      }
+      ByteBuffer index = ByteBuffer.allocate(trailer.blocks * INDEX_ENTRY_SIZE);
+      readFully(channel, index, trailer.indexOffset);
+      index.flip();
+      List<CatalogSource.Part> parts = new ArrayList<>(trailer.blocks);
+      for (int i = 0; i < trailer.blocks; i++) {
+        Block block = new Block(file, index.getLong(), index.getInt(), index.getInt(),
+            index.getInt());
+        if (block.offset < MAGIC.length || block.compressedLength < 0 || block.rawLength < 0
+            || block.offset + block.compressedLength > trailer.indexOffset) {
+          throw new IOException(file + " has a corrupt entry for block " + i);
+        }
+        parts.add(block);
+      }
+      return parts;
+    }
+  }
+
+  /** Where the index of a block catalog is, as its trailer says. */
+  private static class Trailer {
+    final int blocks;
+    final long indexOffset;
+
+    Trailer(int blocks, long indexOffset) {
+      this.blocks = blocks;
+      this.indexOffset = indexOffset;
+    }
+  }
+
+  /**
+   * Reads the trailer of a file at least as long as a magic and a trailer, or returns null if it
+   * is not the trailer of a block catalog of that size.
+   */
+  private static Trailer readTrailer(FileChannel channel) throws IOException {
+    long size = channel.size();
+    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+    readFully(channel, trailer, size - TRAILER_SIZE);
+    trailer.flip();
+    int blocks = trailer.getInt();
+    long indexOffset = trailer.getLong();
+    byte[] magic = new byte[MAGIC.length];
+    trailer.get(magic);
+    long indexSize = (long) blocks * INDEX_ENTRY_SIZE;
+    if (!Arrays.equals(magic, MAGIC) || blocks < 0 || indexSize > Integer.MAX_VALUE
+        || indexOffset < MAGIC.length || indexOffset + indexSize != size - TRAILER_SIZE) {
+      return null;
+    }
+    return new Trailer(blocks, indexOffset);
+  }
+
+  /**
+   * Writes every line of the catalog to the file in blocks of about the block size, compressing
+   * them at the given Deflater level. Returns the number of blocks written.
+   */
+  static int write(CatalogSource catalog, Path file, int blockSize, int level)
+      throws IOException {
+    ByteBuffer index = ByteBuffer.allocate(1024 * INDEX_ENTRY_SIZE);
+    int blocks = 0;
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file),
+        CatalogSource.BUFFER_SIZE)) {
+      out.write(MAGIC);
+      long offset = MAGIC.length;
+      ByteArrayOutputStream raw = new ByteArrayOutputStream(blockSize + (blockSize >> 4));
+      byte[] buffer = new byte[1 << 16];
+      Deflater deflater = new Deflater(level, true);
+      try {
+        for (CatalogSource.Part part : catalog.parts()) {
+          try (BufferedReader reader = part.open()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+              raw.write(line.getBytes(StandardCharsets.UTF_8));
+              raw.write('\n');
+              if (raw.size() >= blockSize) {
+                index = ensureRoom(index);
+                offset += writeBlock(raw, deflater, buffer, out, offset, index);
+                blocks++;
+              }
+            }
+          }
+        }
+        if (raw.size() > 0) {
+          index = ensureRoom(index);
+          offset += writeBlock(raw, deflater, buffer, out, offset, index);
+          blocks++;
+        }
+      } finally {
+        deflater.end();
+      }
+      out.write(index.array(), 0, index.position());
+      ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+      trailer.putInt(blocks).putLong(offset).put(MAGIC);
+      out.write(trailer.array());
+    }
+    return blocks;
+  }
+
+  /** Compresses and writes one block, records it in the index and returns its length. */
+  private static int writeBlock(ByteArrayOutputStream raw, Deflater deflater, byte[] buffer,
+      OutputStream out, long offset, ByteBuffer index) throws IOException {
+    byte[] bytes = raw.toByteArray();
+    raw.reset();
+    CRC32 checksum = new CRC32();
+    checksum.update(bytes);
+    deflater.reset();
+    deflater.setInput(bytes);
+    deflater.finish();
+    int length = 0;
+    while (!deflater.finished()) {
+      int deflated = deflater.deflate(buffer);
+      out.write(buffer, 0, deflated);
+      length += deflated;
+    }
+    index.putLong(offset).putInt(length).putInt(bytes.length).putInt((int) checksum.getValue());
+    return length;
+  }
+
+  private static ByteBuffer ensureRoom(ByteBuffer index) {
+    if (index.remaining() >= INDEX_ENTRY_SIZE) {
+      return index;
+    }
+    ByteBuffer larger = ByteBuffer.allocate(index.capacity() * 2);
+    index.flip();
+    return larger.put(index);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of block catalog");
+      }
+    }
+  }
+
+  /**
+   * Converts a catalog to a block catalog. Arguments: the catalog file or directory, and the
+   * block catalog file to write.
+   */
+  public static void main(String[] args) throws IOException {
+    long start = System.nanoTime();
+    int blocks = write(CatalogSource.of(Path.of(args[0])), Path.of(args[1]), BLOCK_SIZE,
+        Deflater.DEFAULT_COMPRESSION);
+    System.out.printf("Wrote %d blocks to %s in %d ms%n", blocks, args[1],
+        (System.nanoTime() - start) / 1_000_000);
+  }
+}
@@ -0,0 +1,141 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hash map keyed by strings that ignores case, hashing and comparing the keys in place.
+ *
+ * <p>Characters are folded the same way as {@link String#CASE_INSENSITIVE_ORDER}, which does not
+ * depend on the default locale, and no folded copy of a key is ever allocated. Every operation
+ * is a single probe of the table. The map keeps the key it was first given, so callers can still
+ * display the original spelling.
+ */
+class CaseInsensitiveMap<V> {
+
+  private static class Node<V> {
+    final String key;
+    final int hash;
+    V value;
+    Node<V> next;
+
+    Node(String key, int hash, V value, Node<V> next) {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+      this.next = next;
+    }
+  }
+
+  private Node<V>[] table = newTable(16);
+  private int size = 0;
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static <V> Node<V>[] newTable(int capacity) {
+    return (Node<V>[]) new Node[capacity];
+  }
+
+  static char fold(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  static int hash(String key) {
+    int h = 0;
+    for (int i = 0; i < key.length(); i++) {
+      h = 31 * h + fold(key.charAt(i));
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean matches(Node<?> node, String key, int hash) {
+    return node.hash == hash && node.key.length() == key.length()
+        && node.key.regionMatches(true, 0, key, 0, key.length());
+  }
+
+  private Node<V> find(String key, int hash) {
+    for (Node<V> node = table[hash & (table.length - 1)]; node != null; node = node.next) {
+      if (matches(node, key, hash)) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the value stored under the key, ignoring case, or null if there is none. */
+  V get(String key) {
+    Node<V> node = find(key, hash(key));
+    return node == null ? null : node.value;
+  }
+
+  /**
+   * Stores the value unless the key, ignoring case, is already present. Returns the existing
+   * value, or null if the value was stored.
+   */
+  V putIfAbsent(String key, V value) {
+    int hash = hash(key);
+    int bucket = hash & (table.length - 1);
+    for (Node<V> node = table[bucket]; node != null; node = node.next) {
+      if (matches(node, key, hash)) {
+        return node.value;
+      }
+    }
+    table[bucket] = new Node<>(key, hash, value, table[bucket]);
+    if (++size > table.length * 3 / 4) {
+      resize();
+    }
+    return null;
+  }
+
+  /** Removes the key, ignoring case. Returns the removed value, or null if there was none. */
+  V remove(String key) {
+    int hash = hash(key);
+    int bucket = hash & (table.length - 1);
+    Node<V> previous = null;
+    for (Node<V> node = table[bucket]; node != null; previous = node, node = node.next) {
+      if (matches(node, key, hash)) {
+        if (previous == null) {
+          table[bucket] = node.next;
+        } else {
+          previous.next = node.next;
+        }
+        size--;
+        return node.value;
+      }
+    }
+    return null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns a snapshot of the values in no particular order. */
+  List<V> values() {
+    List<V> values = new ArrayList<>(size);
+    for (Node<V> head : table) {
+      for (Node<V> node = head; node != null; node = node.next) {
+        values.add(node.value);
+      }
+    }
+    return values;
+  }
+
+  private void resize() {
+    Node<V>[] old = table;
+    table = newTable(old.length * 2);
+    for (Node<V> head : old) {
+      Node<V> node = head;
+      while (node != null) {
+        Node<V> next = node.next;
+        int bucket = node.hash & (table.length - 1);
+        node.next = table[bucket];
+        table[bucket] = node;
+        node = next;
+      }
+    }
+  }
+}
@@ -0,0 +1,284 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A class used to stream catalog deltas into a {@link VideoLibrary}.
+ *
+ * <p>Deltas use the videos.txt format, one video per line; an existing video with the same id is
+ * replaced. A line of the form {@code -<video_id>}, without a {@code |}, removes that video. The
+ * work is split across a parser thread, a normalize thread and the calling thread, which applies
+ * each batch to the library under one write lock. Stages are connected by bounded queues, so a
+ * slow stage blocks the ones before it instead of letting unapplied rows pile up on the heap. If
+ * applying a batch fails or the calling thread is interrupted, both stages are interrupted and
+ * stop.
+ */
+class CatalogIngest {
+
+  /** A single parsed catalog change. */
+  static class Update {
+    private final String title;
+    private final String videoId;
+    private final List<String> tags;
+    // Null until analyzed, and for removals.
+    private final VideoLibrary.Analysis analysis;
+
+    private Update(String title, String videoId, List<String> tags,
+        VideoLibrary.Analysis analysis) {
+      this.title = title;
+      this.videoId = videoId;
+      this.tags = tags;
+      this.analysis = analysis;
+    }
+
+    static Update put(String title, String videoId, List<String> tags) {
+      return new Update(title, videoId, tags, null);
+    }
+
+    static Update remove(String videoId) {
+      return new Update(null, videoId, null, null);
+    }
+
+    /** Returns this update with its video analyzed by the library, ready to be applied. */
+    Update analyzedBy(VideoLibrary library) {
+      return isRemoval() ? this
+          : new Update(title, videoId, tags, library.analyze(title, tags));
+    }
+
+    boolean isRemoval() {
+      return title == null;
+    }
+
+    String getTitle() {
+      return title;
+    }
+
+    String getVideoId() {
+      return videoId;
+    }
+
+    List<String> getTags() {
+      return tags;
+    }
+
+    VideoLibrary.Analysis getAnalysis() {
+      return analysis;
+    }
+  }
+
+  /** Statistics about a finished ingest. */
+  static class Summary {
+    final long rows;
+    final long malformedRows;
+    final long batches;
+    final long elapsedNanos;
+    final int maxLineQueueDepth;
+    final int maxUpdateQueueDepth;
+
+    Summary(long rows, long malformedRows, long batches, long elapsedNanos,
+        int maxLineQueueDepth, int maxUpdateQueueDepth) {
+      this.rows = rows;
+      this.malformedRows = malformedRows;
+      this.batches = batches;
+      this.elapsedNanos = elapsedNanos;
+      this.maxLineQueueDepth = maxLineQueueDepth;
+      this.maxUpdateQueueDepth = maxUpdateQueueDepth;
+    }
+
+    double rowsPerSecond() {
+      return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d rows (%d malformed) in %d batches, %.0f rows/sec, "
+              + "max queue depths %d lines / %d updates",
+          rows, malformedRows, batches, rowsPerSecond(), maxLineQueueDepth, maxUpdateQueueDepth);
+    }
+  }
+
+  private static final List<String> END_OF_LINES = new ArrayList<>(0);
+  private static final List<Update> END_OF_UPDATES = new ArrayList<>(0);
+
+  private final VideoLibrary library;
+  private final int batchSize;
+  private final BlockingQueue<List<String>> lines;
+  private final BlockingQueue<List<Update>> updates;
+  private volatile boolean aborted;
+  private volatile long malformedRows;
+  private volatile int maxLineQueueDepth;
+  private volatile int maxUpdateQueueDepth;
+
+  CatalogIngest(VideoLibrary library, int batchSize, int queueCapacity) {
+    this.library = library;
+    this.batchSize = batchSize;
+    this.lines = new ArrayBlockingQueue<>(queueCapacity);
+    this.updates = new ArrayBlockingQueue<>(queueCapacity);
+  }
+
+  /** Returns the number of line batches waiting to be normalized. */
+  int lineQueueDepth() {
+    return lines.size();
+  }
+
+  /** Returns the number of update batches waiting to be applied. */
+  int updateQueueDepth() {
+    return updates.size();
+  }
+
+  /**
+   * Reads every delta from the input and applies it to the library, returning once the last
+   * batch is visible. Throws the IOException of the parser thread if reading failed, and stops
+   * both stages before throwing anything the library or the wait for a batch throws.
+   */
+  Summary ingest(Reader input) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    IOException[] readError = new IOException[1];
+    Thread parser = new Thread(() -> {
+      try (BufferedReader reader = new BufferedReader(input, 1 << 16)) {
+        List<String> batch = new ArrayList<>(batchSize);
+        String line;
+        while ((line = reader.readLine()) != null) {
+          batch.add(line);
+          if (batch.size() == batchSize) {
+            offerLines(batch);
+            batch = new ArrayList<>(batchSize);
+          }
+        }
+        if (!batch.isEmpty()) {
+          offerLines(batch);
+        }
+      } catch (IOException e) {
+        readError[0] = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        finish(lines, END_OF_LINES);
+      }
+    }, "catalog-ingest-parser");
+    Thread normalizer = new Thread(() -> {
+      Map<String, String> tagPool = new HashMap<>();
+      try {
+        List<String> batch;
+        while ((batch = lines.take()) != END_OF_LINES) {
+          List<Update> parsed = new ArrayList<>(batch.size());
+          for (String line : batch) {
+            Update update = parse(line, tagPool);
+            if (update != null) {
+              parsed.add(update.analyzedBy(library));
+            } else if (!line.isBlank()) {
+              malformedRows++;
+            }
+          }
+          offerUpdates(parsed);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        finish(updates, END_OF_UPDATES);
+      }
+    }, "catalog-ingest-normalizer");
+    parser.setDaemon(true);
+    normalizer.setDaemon(true);
+    parser.start();
+    normalizer.start();
+
+    long rows = 0;
+    long batches = 0;
+    boolean drained = false;
+    try {
+      List<Update> batch;
+      while ((batch = updates.take()) != END_OF_UPDATES) {
+        library.applyUpdates(batch);
+        rows += batch.size();
+        batches++;
+      }
+      drained = true;
+    } finally {
+      if (!drained) {
+        aborted = true;
+        parser.interrupt();
+        normalizer.interrupt();
+      }
+    }
+    parser.join();
+    normalizer.join();
+    if (readError[0] != null) {
+      throw readError[0];
+    }
+    return new Summary(rows, malformedRows, batches, System.nanoTime() - start,
+        maxLineQueueDepth, maxUpdateQueueDepth);
+  }
+
+  private void offerLines(List<String> batch) throws InterruptedException {
+    lines.put(batch);
+    maxLineQueueDepth = Math.max(maxLineQueueDepth, lines.size());
+  }
+
+  private void offerUpdates(List<Update> batch) throws InterruptedException {
+    updates.put(batch);
+    maxUpdateQueueDepth = Math.max(maxUpdateQueueDepth, updates.size());
+  }
+
+  /**
+   * Puts the end marker on the queue even if the stage was interrupted, unless the ingest was
+   * aborted and nothing will take it.
+   */
+  private <T> void finish(BlockingQueue<List<T>> queue, List<T> end) {
+    boolean interrupted = false;
+    while (!aborted) {
+      try {
+        queue.put(end);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Parses one delta line, sharing equal tag strings through the pool. A line starting with
+   * {@code -} is a removal only if it has no {@code |}, so titles may start with a dash. Returns
+   * null if the line is malformed or blank.
+   */
+  static Update parse(String line, Map<String, String> tagPool) {
+    String stripped = line.strip();
+    if (stripped.startsWith("-") && stripped.indexOf('|') < 0) {
+      String id = stripped.substring(1).strip();
+      return id.isEmpty() ? null : Update.remove(id);
+    }
+    return parseVideo(line, tagPool);
+  }
+
+  /**
+   * Parses one line of the videos.txt format, which never removes a video, sharing equal tag
+   * strings through the pool. Returns null if the line is malformed or blank.
+   */
+  static Update parseVideo(String line, Map<String, String> tagPool) {
+    String[] split = line.split("\\|");
+    if (split.length < 2 || split[1].isBlank()) {
+      return null;
+    }
+    List<String> tags = new ArrayList<>();
+    if (split.length > 2) {
+      for (String tag : split[2].split(",")) {
+        String strippedTag = tag.strip();
+        if (!strippedTag.isEmpty()) {
+          tags.add(tagPool.computeIfAbsent(strippedTag, t -> t));
+        }
+      }
+    }
+    return Update.put(split[0].strip(), split[1].strip(), tags);
+  }
+}
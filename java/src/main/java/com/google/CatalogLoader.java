@@ -0,0 +1,183 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * A class used to load a whole catalog from a {@link CatalogSource} into a library.
+ *
+ * <p>A catalog is read as {@link CatalogIngest} updates over an empty library, so lines are
+ * parsed the same way except that none of them removes a video, and applied in batches of
+ * {@link #BATCH_SIZE} under one write lock each, always in catalog order. Malformed lines are
+ * counted and skipped rather than failing the load.
+ */
+final class CatalogLoader {
+
+  static final int BATCH_SIZE = 4096;
+
+  /** Statistics about a finished load. */
+  static class Summary {
+    final String source;
+    final int parts;
+    final long rows;
+    final long malformedLines;
+    final long elapsedNanos;
+
+    Summary(String source, int parts, long rows, long malformedLines, long elapsedNanos) {
+      this.source = source;
+      this.parts = parts;
+      this.rows = rows;
+      this.malformedLines = malformedLines;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Loaded %d rows from %s (%d %s) in %d ms, %d malformed lines skipped",
+          rows, source, parts, parts == 1 ? "part" : "parts", elapsedNanos / 1_000_000,
+          malformedLines);
+    }
+  }
+
+  /** The batches of videos parsed from one part, and its number of malformed lines. */
+  private static class ParsedPart {
+    final List<List<CatalogIngest.Update>> batches = new ArrayList<>();
+    long malformedLines;
+  }
+
+  private interface BatchSink {
+    void accept(List<CatalogIngest.Update> batch);
+  }
+
+  private CatalogLoader() {
+  }
+
+  /**
+   * Reads every part of the catalog into the library, keeping only the videos whose id the filter
+   * accepts, with as many threads as there are processors.
+   */
+  static Summary load(CatalogSource source, VideoLibrary library, Predicate<String> filter)
+      throws IOException {
+    return load(source, library, filter, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Reads every part of the catalog into the library, keeping only the videos whose id the filter
+   * accepts. When there are several parts of known, bounded size, such as the blocks of a
+   * {@link BlockCatalog}, up to parallelism of them are decoded, parsed and normalized at once,
+   * and at most twice that many are held parsed, while the calling thread applies them in catalog
+   * order. Other parts are streamed one after the other.
+   */
+  static Summary load(CatalogSource source, VideoLibrary library, Predicate<String> filter,
+      int parallelism) throws IOException {
+    long start = System.nanoTime();
+    List<CatalogSource.Part> parts = source.parts();
+    Map<String, String> tagPool = new ConcurrentHashMap<>();
+    long[] rows = new long[1];
+    BatchSink apply = batch -> {
+      library.applyUpdates(batch);
+      rows[0] += batch.size();
+    };
+    long malformedLines = 0;
+    if (parallelism > 1 && parts.size() > 1
+        && parts.stream().allMatch(part -> part.rawSize() >= 0)) {
+      malformedLines = loadInParallel(parts, library, filter, tagPool, apply, parallelism);
+    } else {
+      for (CatalogSource.Part part : parts) {
+        malformedLines += parse(part, library, filter, tagPool, apply);
+      }
+    }
+    return new Summary(source.name(), parts.size(), rows[0], malformedLines,
+        System.nanoTime() - start);
+  }
+
+  private static long loadInParallel(List<CatalogSource.Part> parts, VideoLibrary library,
+      Predicate<String> filter, Map<String, String> tagPool, BatchSink apply, int parallelism)
+      throws IOException {
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread thread = new Thread(r, "catalog-loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      long malformedLines = 0;
+      Deque<Future<ParsedPart>> pending = new ArrayDeque<>();
+      Iterator<CatalogSource.Part> next = parts.iterator();
+      while (next.hasNext() || !pending.isEmpty()) {
+        while (next.hasNext() && pending.size() < 2 * parallelism) {
+          CatalogSource.Part part = next.next();
+          pending.add(workers.submit(() -> {
+            ParsedPart parsed = new ParsedPart();
+            parsed.malformedLines = parse(part, library, filter, tagPool, parsed.batches::add);
+            return parsed;
+          }));
+        }
+        ParsedPart parsed = await(pending.remove());
+        parsed.batches.forEach(apply::accept);
+        malformedLines += parsed.malformedLines;
+      }
+      return malformedLines;
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  private static ParsedPart await(Future<ParsedPart> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading the catalog");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Couldn't parse part of the catalog", e.getCause());
+    }
+  }
+
+  /**
+   * Parses the lines of the part, handing the videos the filter accepts to the sink in batches of
+   * up to {@link #BATCH_SIZE}, already analyzed by the library. Returns the number of malformed
+   * lines.
+   */
+  private static long parse(CatalogSource.Part part, VideoLibrary library,
+      Predicate<String> filter, Map<String, String> tagPool, BatchSink sink) throws IOException {
+    long malformedLines = 0;
+    List<CatalogIngest.Update> batch = new ArrayList<>(BATCH_SIZE);
+    try (BufferedReader reader = part.open()) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        CatalogIngest.Update update = CatalogIngest.parseVideo(line, tagPool);
+        if (update == null) {
+          if (!line.isBlank()) {
+            malformedLines++;
+          }
+        } else if (filter.test(update.getVideoId())) {
+          batch.add(update.analyzedBy(library));
+          if (batch.size() == BATCH_SIZE) {
+            sink.accept(batch);
+            batch = new ArrayList<>(BATCH_SIZE);
+          }
+        }
+      }
+    }
+    if (!batch.isEmpty()) {
+      sink.accept(batch);
+    }
+    return malformedLines;
+  }
+}
@@ -0,0 +1,177 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A class used to name where a catalog in the videos.txt format is read from: a classpath
+ * resource, which works whether the classes are in a directory or a jar, a file, or a directory
+ * whose files are the parts of one catalog, such as separately exported shards, read in name
+ * order.
+ *
+ * <p>Files may be gzip-compressed or {@link BlockCatalog}s, which are recognized from their first
+ * bytes rather than their names; every block of a block catalog is a part of its own. Files are
+ * read through their channel into {@link #BUFFER_SIZE} buffers, so large catalogs are read in
+ * few, large reads. Malformed UTF-8 is replaced rather than failing the load.
+ */
+final class CatalogSource {
+
+  static final int BUFFER_SIZE = 1 << 20;
+
+  private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+  private static final byte[] ZSTD_MAGIC = {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd};
+
+  /** One part of a catalog, readable independently of the others. */
+  interface Part {
+    /** Opens a reader over the lines of the part. */
+    BufferedReader open() throws IOException;
+
+    /**
+     * Returns the number of bytes the part decodes to, if it is known and small enough to hold in
+     * memory, or -1.
+     */
+    default long rawSize() {
+      return -1;
+    }
+  }
+
+  private interface PartLister {
+    List<Part> list() throws IOException;
+  }
+
+  private final String name;
+  private final PartLister parts;
+
+  private CatalogSource(String name, PartLister parts) {
+    this.name = name;
+    this.parts = parts;
+  }
+
+  /** Returns the catalog in the classpath resource, such as "/videos.txt". */
+  static CatalogSource resource(String resource) {
+    return new CatalogSource(resource, () -> List.of(() -> {
+      InputStream in = CatalogSource.class.getResourceAsStream(resource);
+      if (in == null) {
+        throw new FileNotFoundException("No resource " + resource);
+      }
+      return open(new BufferedInputStream(in, BUFFER_SIZE));
+    }));
+  }
+
+  /** Returns the catalog in the file, or in the visible files of the directory. */
+  static CatalogSource of(Path path) {
+    return new CatalogSource(path.toString(), () -> {
+      if (!Files.isDirectory(path)) {
+        return partsOf(path);
+      }
+      List<Path> files;
+      try (Stream<Path> listing = Files.list(path)) {
+        files = listing
+            .filter(Files::isRegularFile)
+            .filter(file -> !file.getFileName().toString().startsWith("."))
+            .sorted()
+            .collect(Collectors.toList());
+      }
+      List<Part> parts = new ArrayList<>();
+      for (Path file : files) {
+        parts.addAll(partsOf(file));
+      }
+      return parts;
+    });
+  }
+
+  /** Returns the blocks of a {@link BlockCatalog}, or else the whole file as one part. */
+  private static List<Part> partsOf(Path file) throws IOException {
+    if (BlockCatalog.isBlockCatalog(file)) {
+      return BlockCatalog.parts(file);
+    }
+    return List.of(() -> open(file));
+  }
+
+  /** Returns a description of the source for messages, such as its path. */
+  String name() {
+    return name;
+  }
+
+  /** Returns the parts of the catalog, in catalog order. */
+  List<Part> parts() throws IOException {
+    return parts.list();
+  }
+
+  private static BufferedReader open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file);
+    try {
+      ByteBuffer head = ByteBuffer.allocate(ZSTD_MAGIC.length);
+      channel.read(head, 0);
+      byte[] magic = new byte[head.flip().remaining()];
+      head.get(magic);
+      checkSupported(magic, file.toString());
+      if (startsWith(magic, GZIP_MAGIC)) {
+        return reader(new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+      }
+      return new BufferedReader(Channels.newReader(channel, decoder(), BUFFER_SIZE), BUFFER_SIZE);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private static BufferedReader open(BufferedInputStream in) throws IOException {
+    try {
+      in.mark(ZSTD_MAGIC.length);
+      byte[] magic = in.readNBytes(ZSTD_MAGIC.length);
+      in.reset();
+      checkSupported(magic, "resource");
+      return reader(startsWith(magic, GZIP_MAGIC) ? new GZIPInputStream(in, BUFFER_SIZE) : in);
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static void checkSupported(byte[] magic, String name) throws IOException {
+    if (startsWith(magic, ZSTD_MAGIC)) {
+      throw new IOException(name + " is zstd-compressed, which the JDK cannot read; "
+          + "recompress it with gzip");
+    }
+  }
+
+  private static boolean startsWith(byte[] bytes, byte[] prefix) {
+    if (bytes.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static BufferedReader reader(InputStream in) {
+    return new BufferedReader(new InputStreamReader(in, decoder()), BUFFER_SIZE);
+  }
+
+  private static CharsetDecoder decoder() {
+    return StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+}
@@ -0,0 +1,66 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A blocking client for {@link CommandServer}. Requests are buffered by {@link #send} and only go
+ * out on {@link #flush}, so several can be pipelined before reading the responses.
+ */
+class CommandClient implements Closeable {
+
+  /** A response read from the server. */
+  static class Response {
+    final int id;
+    final byte status;
+    final String output;
+
+    Response(int id, byte status, String output) {
+      this.id = id;
+      this.status = status;
+      this.output = output;
+    }
+  }
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  CommandClient(String host, int port) throws IOException {
+    socket = new Socket(host, port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  void send(int id, String command) throws IOException {
+    ByteBuffer frame = WireProtocol.request(id, command);
+    out.write(frame.array(), frame.position(), frame.remaining());
+  }
+
+  void flush() throws IOException {
+    out.flush();
+  }
+
+  /** Waits for the next response. */
+  Response receive() throws IOException {
+    int length = in.readInt();
+    int id = in.readInt();
+    byte status = in.readByte();
+    byte[] text = new byte[length - 5];
+    in.readFully(text);
+    return new Response(id, status, new String(text, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+}
@@ -0,0 +1,50 @@
+package com.google;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A class used to run commands on behalf of one remote client and collect what they print.
+ *
+ * <p>The console's player prints into a buffer of its own rather than to {@code System.out}, and
+ * reads end of input, so interactive prompts take their default answer. Consoles of different
+ * clients can run commands at the same time; each console must be used by one thread at a time.
+ */
+final class CommandConsole {
+
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+  private final VideoPlayer player;
+  private final CommandParser parser;
+
+  CommandConsole(VideoLibrary library, VideoFlags flags, PlaybackHistory history) {
+    this(library, flags, history, CommandMetrics.global());
+  }
+
+  /** Creates a console recording into the given metrics rather than the process-wide ones. */
+  CommandConsole(VideoLibrary library, VideoFlags flags, PlaybackHistory history,
+      CommandMetrics metrics) {
+    player = new VideoPlayer(library, flags, history,
+        new PrintStream(buffer, true, StandardCharsets.UTF_8), InputStream.nullInputStream());
+    parser = new CommandParser(player, metrics);
+  }
+
+  VideoPlayer player() {
+    return player;
+  }
+
+  /** Runs the command line and returns everything it printed. */
+  String execute(String commandLine) {
+    parser.executeCommand(Arrays.asList(commandLine.strip().split("\\s+")));
+    return takeOutput();
+  }
+
+  /** Returns everything printed since the last time, and forgets it. */
+  String takeOutput() {
+    String output = buffer.toString(StandardCharsets.UTF_8);
+    buffer.reset();
+    return output;
+  }
+}
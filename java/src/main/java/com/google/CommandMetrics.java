@@ -0,0 +1,175 @@
+package com.google;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A class used to collect per-command latency, error and result-size metrics.
+ *
+ * <p>{@link CommandParser} brackets every command with {@link #start} and {@link #stop}. Code
+ * running inside a command attributes errors and result sizes to it through the static
+ * {@link #recordError} and {@link #recordResults} methods, which find the command through a
+ * thread local and do nothing outside one. Time spent waiting for the user between
+ * {@link #pauseTimer} and {@link #resumeTimer} is left out of the command's latency. The hot
+ * path allocates nothing once a verb has been seen: each thread reuses one {@link Sample}, and
+ * every counter is a LongAdder or an atomic histogram bucket.
+ */
+class CommandMetrics implements CommandMetricsMXBean {
+
+  /** The metrics of a single command verb. */
+  static class VerbStats {
+    final LatencyHistogram latencyNanos = new LatencyHistogram();
+    final LongAdder count = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder results = new LongAdder();
+  }
+
+  /** The in-flight command of one thread. */
+  private static class Sample {
+    String verb;
+    long startNanos;
+    long pausedNanos;
+    boolean error;
+    int results;
+  }
+
+  private static final CommandMetrics GLOBAL = new CommandMetrics();
+  private static final ThreadLocal<Sample> CURRENT = ThreadLocal.withInitial(Sample::new);
+  private static final String INVALID_VERB = "INVALID";
+
+  private final Map<String, VerbStats> verbs = new ConcurrentHashMap<>();
+  private final AtomicBoolean registered = new AtomicBoolean();
+
+  /** Returns the metrics shared by every parser in the process. */
+  static CommandMetrics global() {
+    return GLOBAL;
+  }
+
+  /** Starts timing a command on the calling thread. */
+  void start(String verb) {
+    Sample sample = CURRENT.get();
+    sample.verb = verb;
+    sample.error = false;
+    sample.results = 0;
+    sample.pausedNanos = 0;
+    sample.startNanos = System.nanoTime();
+  }
+
+  /** Stops timing the command started on the calling thread and records it. */
+  void stop() {
+    Sample sample = CURRENT.get();
+    if (sample.verb == null) {
+      return;
+    }
+    resumeTimer();
+    long elapsed = System.nanoTime() - sample.startNanos;
+    VerbStats stats = verbs.computeIfAbsent(sample.verb, v -> new VerbStats());
+    stats.latencyNanos.record(elapsed);
+    stats.count.increment();
+    if (sample.error) {
+      stats.errors.increment();
+    }
+    stats.results.add(sample.results);
+    sample.verb = null;
+  }
+
+  /** Marks the current command as not recognised, so it is recorded under a single verb. */
+  static void recordInvalid() {
+    Sample sample = CURRENT.get();
+    if (sample.verb != null) {
+      sample.verb = INVALID_VERB;
+      sample.error = true;
+    }
+  }
+
+  /** Marks the current command, if any, as failed. */
+  static void recordError() {
+    CURRENT.get().error = true;
+  }
+
+  /** Adds to the number of results produced by the current command, if any. */
+  static void recordResults(int count) {
+    CURRENT.get().results += count;
+  }
+
+  /** Stops the clock of the current command, if any, such as while it waits for an answer. */
+  static void pauseTimer() {
+    Sample sample = CURRENT.get();
+    if (sample.verb != null && sample.pausedNanos == 0) {
+      sample.pausedNanos = System.nanoTime();
+    }
+  }
+
+  /** Restarts the clock of the current command after {@link #pauseTimer}. */
+  static void resumeTimer() {
+    Sample sample = CURRENT.get();
+    if (sample.pausedNanos != 0) {
+      sample.startNanos += System.nanoTime() - sample.pausedNanos;
+      sample.pausedNanos = 0;
+    }
+  }
+
+  /** Returns the stats of a verb, or null if it was never executed. */
+  VerbStats getStats(String verb) {
+    return verbs.get(verb);
+  }
+
+  @Override
+  public long getCommandCount() {
+    return verbs.values().stream().mapToLong(s -> s.count.sum()).sum();
+  }
+
+  @Override
+  public long getErrorCount() {
+    return verbs.values().stream().mapToLong(s -> s.errors.sum()).sum();
+  }
+
+  @Override
+  public String getReport() {
+    StringBuilder report = new StringBuilder();
+    new TreeMap<>(verbs).forEach((verb, stats) -> report.append(String.format(
+        "%s: count=%d errors=%d results=%d p50=%.1fus p99=%.1fus max=%.1fus%n",
+        verb, stats.count.sum(), stats.errors.sum(), stats.results.sum(),
+        stats.latencyNanos.percentile(50) / 1e3, stats.latencyNanos.percentile(99) / 1e3,
+        stats.latencyNanos.percentile(100) / 1e3)));
+    return report.length() == 0 ? "No commands recorded yet" + System.lineSeparator()
+        : report.toString();
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server under com.google:type=Commands. Only
+   * the first call registers them, so every entry point may call it.
+   */
+  void registerMBean() {
+    if (!registered.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(this, new ObjectName("com.google:type=Commands"));
+    } catch (JMException e) {
+      System.out.println("Couldn't register command metrics MBean");
+      e.printStackTrace();
+    }
+  }
+
+  /** Prints the report to the stream every period on a daemon thread. */
+  void startPeriodicDump(PrintStream out, long period, TimeUnit unit) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "command-metrics-dump");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleAtFixedRate(() -> out.print(getReport()), period, period, unit);
+  }
+}
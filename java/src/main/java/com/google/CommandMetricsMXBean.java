@@ -0,0 +1,14 @@
+package com.google;
+
+/** The JMX view of {@link CommandMetrics}. */
+public interface CommandMetricsMXBean {
+
+  /** Returns the total number of executed commands. */
+  long getCommandCount();
+
+  /** Returns the total number of commands that reported an error. */
+  long getErrorCount();
+
+  /** Returns the same plain-text report as the METRICS command. */
+  String getReport();
+}
@@ -1,6 +1,8 @@
 package com.google;
 
+import java.io.PrintStream;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * A class used to parse and execute a user Command.
@@ -8,17 +10,36 @@ import java.util.List;
 class CommandParser {
 
   private final VideoPlayer videoPlayer;
+  private final CommandMetrics metrics;
+  private final PrintStream out;
 
   CommandParser(VideoPlayer videoPlayer) {
+    this(videoPlayer, CommandMetrics.global());
+  }
+
+  /** Creates a parser recording into the given metrics rather than the process-wide ones. */
+  CommandParser(VideoPlayer videoPlayer, CommandMetrics metrics) {
     this.videoPlayer = videoPlayer;
+    this.metrics = metrics;
+    this.out = videoPlayer.out();
   }
 
   /**
-   * Executes the given user command.
+   * Executes the given user command, recording its latency and outcome in the command metrics.
    */
   public void executeCommand(List<String> command) {
+    metrics.start(command.isEmpty() ? "" : command.get(0).toUpperCase());
+    try {
+      dispatch(command);
+    } finally {
+      metrics.stop();
+    }
+  }
+
+  private void dispatch(List<String> command) {
     if (command.isEmpty()) {
-      System.out.println(
+      CommandMetrics.recordInvalid();
+      out.println(
           "Please enter a valid command, " +
               "type HELP for a list of available commands.");
       return;
@@ -35,15 +56,37 @@ class CommandParser {
         try {
           this.videoPlayer.playVideo(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter PLAY command followed by video_id.");
+          usage("Please enter PLAY command followed by video_id.");
         }
         break;
       case "PLAY_RANDOM":
-        this.videoPlayer.playRandomVideo();
+        if (command.size() < 2) {
+          this.videoPlayer.playRandomVideo();
+        } else if (command.get(1).equalsIgnoreCase("POPULAR")) {
+          this.videoPlayer.playPopularRandomVideo();
+        } else {
+          usage("Please enter PLAY_RANDOM command optionally followed by POPULAR.");
+        }
         break;
       case "STOP":
         this.videoPlayer.stopVideo();
         break;
+      case "PLAY_PLAYLIST":
+        if (command.size() == 2) {
+          this.videoPlayer.playPlaylist(command.get(1), false);
+        } else if (command.size() == 3 && command.get(2).equalsIgnoreCase("SHUFFLE")) {
+          this.videoPlayer.playPlaylist(command.get(1), true);
+        } else {
+          usage("Please enter PLAY_PLAYLIST command followed by a playlist name and "
+              + "optionally SHUFFLE.");
+        }
+        break;
+      case "NEXT":
+        this.videoPlayer.nextVideo();
+        break;
+      case "PREV":
+        this.videoPlayer.previousVideo();
+        break;
       case "PAUSE":
         this.videoPlayer.pauseVideo();
         break;
@@ -57,7 +100,7 @@ class CommandParser {
         try {
           this.videoPlayer.createPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          usage(
               "Please enter CREATE_PLAYLIST command followed by a " +
                   "playlist name.");
         }
@@ -66,7 +109,7 @@ class CommandParser {
         try {
           this.videoPlayer.addVideoToPlaylist(command.get(1), command.get(2));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          usage(
               "Please enter ADD_TO_PLAYLIST command followed by a "
                   + "playlist name and video_id to add.");
         }
@@ -75,7 +118,7 @@ class CommandParser {
         try {
           this.videoPlayer.removeFromPlaylist(command.get(1), command.get(2));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          usage(
               "Please enter REMOVE_FROM_PLAYLIST command followed by a "
                   + "playlist name and video_id to remove.");
         }
@@ -84,7 +127,7 @@ class CommandParser {
         try {
           this.videoPlayer.clearPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          usage(
               "Please enter CLEAR_PLAYLIST command followed by a "
                   + "playlist name.");
         }
@@ -93,7 +136,7 @@ class CommandParser {
         try {
           this.videoPlayer.deletePlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          usage(
               "Please enter DELETE_PLAYLIST command followed by a " +
                   "playlist name.");
         }
@@ -102,18 +145,39 @@ class CommandParser {
         try {
           this.videoPlayer.showPlaylist(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SHOW_PLAYLIST command followed by a " +
+          usage("Please enter SHOW_PLAYLIST command followed by a " +
               "playlist name.");
         }
         break;
       case "SHOW_ALL_PLAYLISTS":
-        this.videoPlayer.showAllPlaylists();
+        this.showPlaylists(command.subList(1, command.size()));
+        break;
+      case "RELATED":
+        try {
+          this.videoPlayer.showRelatedVideos(command.get(1));
+        } catch (ArrayIndexOutOfBoundsException e) {
+          usage("Please enter RELATED command followed by video_id.");
+        }
+        break;
+      case "MOST_PLAYED":
+        try {
+          this.videoPlayer.showMostPlayed(countArgument(command));
+        } catch (NumberFormatException e) {
+          usage("Please enter MOST_PLAYED command optionally followed by a count.");
+        }
+        break;
+      case "RECENTLY_PLAYED":
+        try {
+          this.videoPlayer.showRecentlyPlayed(countArgument(command));
+        } catch (NumberFormatException e) {
+          usage("Please enter RECENTLY_PLAYED command optionally followed by a count.");
+        }
         break;
       case "SEARCH_VIDEOS":
         try {
           this.videoPlayer.searchVideos(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter SEARCH_VIDEOS command followed by a " +
+          usage("Please enter SEARCH_VIDEOS command followed by a " +
               "search term.");
         }
         break;
@@ -121,11 +185,25 @@ class CommandParser {
         try {
           this.videoPlayer.searchVideosWithTag(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println(
+          usage(
               "Please enter SEARCH_VIDEOS_WITH_TAG command followed by a " +
                   "video tag.");
         }
         break;
+      case "SUGGEST":
+        if (command.size() > 1) {
+          this.videoPlayer.suggest(String.join(" ", command.subList(1, command.size())));
+        } else {
+          usage("Please enter SUGGEST command followed by the start of a title or tag.");
+        }
+        break;
+      case "QUERY_VIDEOS":
+        if (command.size() > 1) {
+          this.videoPlayer.queryVideos(String.join(" ", command.subList(1, command.size())));
+        } else {
+          usage("Please enter QUERY_VIDEOS command followed by a query.");
+        }
+        break;
       case "FLAG_VIDEO":
         try {
           this.videoPlayer.flagVideo(command.get(1), command.get(2));
@@ -133,7 +211,7 @@ class CommandParser {
           try {
             this.videoPlayer.flagVideo(command.get(1));
           } catch (ArrayIndexOutOfBoundsException f) {
-            System.out.println("Please enter FLAG_VIDEO command followed by a" +
+            usage("Please enter FLAG_VIDEO command followed by a" +
                 "video_id and an optional flag reason.");
           }
         }
@@ -142,21 +220,101 @@ class CommandParser {
         try {
           this.videoPlayer.allowVideo(command.get(1));
         } catch (ArrayIndexOutOfBoundsException e) {
-          System.out.println("Please enter ALLOW_VIDEO command followed by a " +
+          usage("Please enter ALLOW_VIDEO command followed by a " +
               "video_id.");
         }
         break;
+      case "FLAG_BY_TAG":
+        if (command.size() == 2) {
+          this.videoPlayer.flagVideosWithTag(command.get(1), "Not supplied");
+        } else if (command.size() == 3) {
+          this.videoPlayer.flagVideosWithTag(command.get(1), command.get(2));
+        } else {
+          usage("Please enter FLAG_BY_TAG command followed by a tag and an optional flag "
+              + "reason.");
+        }
+        break;
+      case "FLAG_BY_QUERY":
+        if (command.size() > 1) {
+          String query = String.join(" ", command.subList(1, command.size()));
+          this.videoPlayer.flagVideosMatching(query, "Matched " + query);
+        } else {
+          usage("Please enter FLAG_BY_QUERY command followed by a query.");
+        }
+        break;
+      case "ALLOW_BULK":
+        if (command.size() > 1) {
+          this.videoPlayer.allowVideosMatching(
+              String.join(" ", command.subList(1, command.size())));
+        } else {
+          usage("Please enter ALLOW_BULK command followed by a query.");
+        }
+        break;
       case "HELP":
         this.getHelp();
         break;
+      case "METRICS":
+        out.print(metrics.getReport());
+        break;
       default:
-        System.out.println(
+        CommandMetrics.recordInvalid();
+        out.println(
             "Please enter a valid command, type HELP for a list of "
             + "available commands.");
         break;
     }
   }
 
+  /**
+   * Returns the optional positive count following the command, or 5 if there is none.
+   */
+  private int countArgument(List<String> command) {
+    if (command.size() < 2) {
+      return 5;
+    }
+    int count = Integer.parseInt(command.get(1));
+    if (count <= 0) {
+      throw new NumberFormatException(command.get(1));
+    }
+    return count;
+  }
+
+  /**
+   * Lists playlists using the optional prefix:, after: and limit: arguments.
+   */
+  private void showPlaylists(List<String> arguments) {
+    String prefix = null;
+    String after = null;
+    int limit = 0;
+    try {
+      for (String argument : arguments) {
+        String lowerCaseArgument = argument.toLowerCase(Locale.ROOT);
+        if (lowerCaseArgument.startsWith("prefix:")) {
+          prefix = argument.substring("prefix:".length());
+        } else if (lowerCaseArgument.startsWith("after:")) {
+          after = argument.substring("after:".length());
+        } else if (lowerCaseArgument.startsWith("limit:")) {
+          limit = Integer.parseInt(argument.substring("limit:".length()));
+        } else {
+          throw new IllegalArgumentException(argument);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      usage("Please enter SHOW_ALL_PLAYLISTS command optionally followed by "
+          + "prefix:<prefix>, after:<playlist_name> and limit:<count>.");
+      return;
+    }
+    this.videoPlayer.showPlaylists(prefix, after, Math.max(0, limit));
+  }
+
+  /**
+   * Displays a usage message for a command with missing arguments.
+   */
+  private void usage(String message) {
+    CommandMetrics.recordError();
+    out.println(message);
+  }
+
   /**
    * Displays all available commands to the user.
    */
@@ -166,8 +324,11 @@ class CommandParser {
             + "    NUMBER_OF_VIDEOS - Shows how many videos are in the library.\n"
             + "    SHOW_ALL_VIDEOS - Lists all videos from the library.\n"
             + "    PLAY <video_id> - Plays specified video.\n"
-            + "    PLAY_RANDOM - Plays a random video from the library.\n"
+            + "    PLAY_RANDOM [POPULAR] - Plays a random video from the library, favouring popular videos if POPULAR is given.\n"
             + "    STOP - Stop the current video.\n"
+            + "    PLAY_PLAYLIST <playlist_name> [SHUFFLE] - Play the videos of a playlist one after another, shuffled if SHUFFLE is given.\n"
+            + "    NEXT - Play the next video of the playing playlist.\n"
+            + "    PREV - Play the previous video of the playing playlist.\n"
             + "    PAUSE - Pause the current video.\n"
             + "    CONTINUE - Resume the current paused video.\n"
             + "    SHOW_PLAYING - Displays the title, url and paused status of the video that is currently playing (or paused).\n"
@@ -177,13 +338,22 @@ class CommandParser {
             + "    CLEAR_PLAYLIST <playlist_name> - Removes all the videos from the playlist.\n"
             + "    DELETE_PLAYLIST <playlist_name> - Deletes the playlist.\n"
             + "    SHOW_PLAYLIST <playlist_name> - List all the videos in this playlist.\n"
-            + "    SHOW_ALL_PLAYLISTS - Display all the available playlists.\n"
+            + "    SHOW_ALL_PLAYLISTS [prefix:<prefix>] [after:<playlist_name>] [limit:<count>] - Display all the available playlists.\n"
+            + "    RELATED <video_id> - Display videos sharing tags with the specified video.\n"
+            + "    MOST_PLAYED [count] - Display the videos played most often.\n"
+            + "    RECENTLY_PLAYED [count] - Display the videos played most recently.\n"
             + "    SEARCH_VIDEOS <search_term> - Display all the videos whose titles contain the search_term.\n"
             + "    SEARCH_VIDEOS_WITH_TAG <tag_name> -Display all videos whose tags contains the provided tag.\n"
+            + "    SUGGEST <prefix> - Display titles and tags completing the prefix.\n"
+            + "    QUERY_VIDEOS <query> - Display all videos matching a query such as tag:#cat AND title:amazing AND NOT flagged.\n"
             + "    FLAG_VIDEO <video_id> <flag_reason> - Mark a video as flagged.\n"
             + "    ALLOW_VIDEO <video_id> - Removes a flag from a video.\n"
+            + "    FLAG_BY_TAG <tag> <flag_reason> - Mark every video with the tag as flagged.\n"
+            + "    FLAG_BY_QUERY <query> - Mark every video matching a query as flagged.\n"
+            + "    ALLOW_BULK <query> - Removes the flag from every video matching a query.\n"
+            + "    METRICS - Displays per-command latency, error and result counts.\n"
             + "    HELP - Displays help.\n"
             + "    EXIT - Terminates the program execution.\n";
-    System.out.println(helpText);
+    out.println(helpText);
   }
 }
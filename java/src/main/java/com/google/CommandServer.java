@@ -0,0 +1,297 @@
+package com.google;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A server exposing the command surface over {@link WireProtocol}.
+ *
+ * <p>One selector thread does all network I/O. Each connection gets its own {@link Handler},
+ * by default a {@link VideoPlayer} session over the shared library, flags and history; its
+ * requests are queued and run one at a time, in order, on a pool of workers, so a client can
+ * pipeline many requests while different connections run in parallel. A connection stops being
+ * read while {@link #MAX_IN_FLIGHT} of its requests are waiting, running or have responses not
+ * yet written, so a client that does not read its responses cannot make the server buffer them
+ * without bound. A request larger than {@link WireProtocol#MAX_FRAME} closes it.
+ */
+class CommandServer implements Closeable {
+
+  static final int MAX_IN_FLIGHT = 1024;
+
+  /** Answers the requests of one connection, one at a time. */
+  interface Handler {
+    /** Returns the text of the response; throwing makes it a failure. */
+    String handle(String request);
+  }
+
+  private final Supplier<Handler> handlers;
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final ExecutorService workers;
+  private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+  private final Thread selectorThread;
+  private volatile boolean closed = false;
+
+  /** Creates a server whose connections are player sessions running command lines. */
+  CommandServer(VideoLibrary library, VideoFlags flags, PlaybackHistory history,
+      InetSocketAddress address, int workerThreads) throws IOException {
+    this(address, workerThreads, playerSessions(library, flags, history));
+  }
+
+  CommandServer(InetSocketAddress address, int workerThreads, Supplier<Handler> handlers)
+      throws IOException {
+    this.handlers = handlers;
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(address);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    AtomicInteger threadNumber = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(workerThreads, r -> {
+      Thread thread = new Thread(r, "command-worker-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    selectorThread = new Thread(this::run, "command-server");
+    selectorThread.setDaemon(true);
+    selectorThread.start();
+  }
+
+  private static Supplier<Handler> playerSessions(VideoLibrary library, VideoFlags flags,
+      PlaybackHistory history) {
+    return () -> new CommandConsole(library, flags, history)::execute;
+  }
+
+  /** Returns the port the server is listening on. */
+  int port() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    selector.wakeup();
+    try {
+      selectorThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    workers.shutdown();
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        selector.select();
+        Connection connection;
+        while ((connection = changed.poll()) != null) {
+          connection.updateInterest();
+        }
+        for (SelectionKey key : selector.selectedKeys()) {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Connection target = (Connection) key.attachment();
+          try {
+            if (key.isReadable()) {
+              target.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              target.write();
+            }
+          } catch (IOException e) {
+            target.close();
+          }
+        }
+        selector.selectedKeys().clear();
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      System.err.println("Command server stopped: " + e.getMessage());
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        try {
+          key.channel().close();
+        } catch (IOException ignored) {
+          // Already shutting down.
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+        // Already shutting down.
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    Connection connection = new Connection(channel);
+    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+  }
+
+  /** The state of one client connection. */
+  private class Connection {
+    final SocketChannel channel;
+    final Handler handler = handlers.get();
+    final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    // Requests received whose responses are not fully written yet.
+    final AtomicInteger inFlight = new AtomicInteger();
+    // Guarded by itself; requests waiting for a worker, and whether one is draining them.
+    final Queue<Request> pending = new ArrayDeque<>();
+    boolean draining = false;
+    ByteBuffer in = ByteBuffer.allocate(4096);
+    SelectionKey key;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    /** Reads whatever has arrived and queues every complete request. */
+    void read() throws IOException {
+      if (channel.read(in) < 0) {
+        close();
+        return;
+      }
+      in.flip();
+      while (in.remaining() >= 4) {
+        int length = in.getInt(in.position());
+        if (length < 4 || length > WireProtocol.MAX_FRAME) {
+          close();
+          return;
+        }
+        if (in.remaining() < 4 + length) {
+          if (in.capacity() < 4 + length) {
+            in = ByteBuffer.allocate(4 + length).put(in);
+            in.flip();
+          }
+          break;
+        }
+        in.getInt();
+        int id = in.getInt();
+        byte[] text = new byte[length - 4];
+        in.get(text);
+        submit(new Request(id, new String(text, StandardCharsets.UTF_8)));
+      }
+      in.compact();
+      updateInterest();
+    }
+
+    void submit(Request request) {
+      inFlight.incrementAndGet();
+      synchronized (pending) {
+        pending.add(request);
+        if (draining) {
+          return;
+        }
+        draining = true;
+      }
+      workers.execute(this::drain);
+    }
+
+    /** Runs queued requests in order until none are left. */
+    void drain() {
+      while (true) {
+        Request request;
+        synchronized (pending) {
+          request = pending.poll();
+          if (request == null) {
+            draining = false;
+            return;
+          }
+        }
+        outbound.add(execute(request));
+        changed.add(this);
+        selector.wakeup();
+      }
+    }
+
+    ByteBuffer execute(Request request) {
+      try {
+        return WireProtocol.response(request.id, WireProtocol.OK,
+            handler.handle(request.command));
+      } catch (RuntimeException e) {
+        return WireProtocol.response(request.id, WireProtocol.FAILED, String.valueOf(e));
+      }
+    }
+
+    void write() throws IOException {
+      ByteBuffer next;
+      while ((next = outbound.peek()) != null) {
+        channel.write(next);
+        if (next.hasRemaining()) {
+          return;
+        }
+        outbound.poll();
+        inFlight.decrementAndGet();
+      }
+      updateInterest();
+    }
+
+    /** Called on the selector thread to read only while there is room, and write when due. */
+    void updateInterest() {
+      if (key == null || !key.isValid()) {
+        return;
+      }
+      int ops = inFlight.get() < MAX_IN_FLIGHT ? SelectionKey.OP_READ : 0;
+      if (!outbound.isEmpty()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(ops);
+    }
+
+    void close() {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+        // Nothing more to do for a connection that is going away.
+      }
+    }
+  }
+
+  /** A request waiting to run. */
+  private static class Request {
+    final int id;
+    final String command;
+
+    Request(int id, String command) {
+      this.id = id;
+      this.command = command;
+    }
+  }
+
+  /** Serves the default library on the given port, 7070 by default, until killed. */
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+    CommandMetrics.global().registerMBean();
+    CommandServer server = new CommandServer(VideoLibrary.shared(), new VideoFlags(),
+        PlaybackHistory.fromProperties(1024), new InetSocketAddress(port),
+        Runtime.getRuntime().availableProcessors());
+    System.out.println("Listening on port " + server.port());
+    server.selectorThread.join();
+  }
+}
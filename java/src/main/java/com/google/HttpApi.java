@@ -0,0 +1,348 @@
+package com.google;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP/JSON API over the library, the flags and the playlists of every user.
+ *
+ * <pre>
+ * GET    /videos[?search=term | ?tag=tag | ?query=query]   NDJSON, one video per line
+ * GET    /videos/{id}
+ * POST   /videos/{id}/flag[?reason=reason]
+ * POST   /videos/{id}/allow
+ * GET    /playlists?user=user                               JSON array of names
+ * GET    /playlists/{name}?user=user                        NDJSON, one video per line
+ * PUT    /playlists/{name}?user=user
+ * DELETE /playlists/{name}?user=user
+ * PUT    /playlists/{name}/videos/{id}?user=user
+ * DELETE /playlists/{name}/videos/{id}?user=user
+ * </pre>
+ *
+ * <p>Listings are streamed with chunked encoding a page of the library at a time, so neither the
+ * listing nor its JSON is ever held in full. Operations are answered with
+ * {@code {"message": ...}}, carrying what the command-line player would print, and a status from
+ * the {@link VideoPlayer.Outcome} it returns: 404 when what it names does not exist, 409 when it
+ * refused the change. Users are the sessions of a {@link SessionManager}, leased for the
+ * length of each operation, so requests of different users run in parallel and a session cannot
+ * be spilled midway.
+ */
+class HttpApi implements Closeable {
+
+  static final int PAGE_SIZE = 256;
+
+  private final VideoLibrary library;
+  private final VideoFlags flags;
+  private final SessionManager sessions;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final CommandMetrics metrics = CommandMetrics.global();
+
+  HttpApi(VideoLibrary library, VideoFlags flags, SessionManager sessions,
+      InetSocketAddress address) throws IOException {
+    this.library = library;
+    this.flags = flags;
+    this.sessions = sessions;
+    AtomicInteger threadNumber = new AtomicInteger();
+    // Streams block on slow clients, so every request gets a thread of its own.
+    executor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "http-api-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    server = HttpServer.create(address, 0);
+    server.createContext("/videos", this::handleVideos);
+    server.createContext("/playlists", this::handlePlaylists);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /** Returns the port the API is listening on. */
+  int port() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  private void handleVideos(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    List<String> path = segments(exchange, "/videos");
+    Map<String, String> query = query(exchange);
+    metrics.start("HTTP_" + method + "_VIDEOS");
+    try {
+      if (path == null) {
+        CommandMetrics.recordInvalid();
+        sendMessage(exchange, 404, "No such operation");
+      } else if (path.isEmpty() && method.equals("GET")) {
+        listVideos(exchange, query);
+      } else if (path.size() == 1 && method.equals("GET")) {
+        Video video = library.getVideo(path.get(0));
+        if (video == null) {
+          CommandMetrics.recordError();
+          sendMessage(exchange, 404, "Video does not exist");
+        } else {
+          sendJson(exchange, 200, videoJson(video));
+        }
+      } else if (path.size() == 2 && method.equals("POST") && path.get(1).equals("flag")) {
+        String reason = query.getOrDefault("reason", "Not supplied");
+        run(exchange, query, player -> player.flagVideo(path.get(0), reason));
+      } else if (path.size() == 2 && method.equals("POST") && path.get(1).equals("allow")) {
+        run(exchange, query, player -> player.allowVideo(path.get(0)));
+      } else {
+        CommandMetrics.recordInvalid();
+        sendMessage(exchange, 404, "No such operation");
+      }
+    } finally {
+      metrics.stop();
+      exchange.close();
+    }
+  }
+
+  private void listVideos(HttpExchange exchange, Map<String, String> query) throws IOException {
+    BitSet selection = null;
+    if (query.containsKey("search")) {
+      selection = flags.removeFlagged(library.withTitleText(query.get("search")));
+    } else if (query.containsKey("tag")) {
+      selection = flags.removeFlagged(library.withTagText(query.get("tag")));
+    } else if (query.containsKey("query")) {
+      try {
+        selection = VideoQuery.parse(query.get("query")).evaluate(library, flags);
+      } catch (IllegalArgumentException e) {
+        CommandMetrics.recordError();
+        sendMessage(exchange, 400, "Cannot run query: " + e.getMessage());
+        return;
+      }
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+    exchange.sendResponseHeaders(200, 0);
+    int count = 0;
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+      List<Video> page = library.inTitleOrderAfter(null, selection, PAGE_SIZE);
+      while (!page.isEmpty()) {
+        for (Video video : page) {
+          out.write(videoJson(video));
+          out.write('\n');
+        }
+        count += page.size();
+        page = library.inTitleOrderAfter(page.get(page.size() - 1), selection, PAGE_SIZE);
+      }
+    }
+    CommandMetrics.recordResults(count);
+  }
+
+  private void handlePlaylists(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    List<String> path = segments(exchange, "/playlists");
+    Map<String, String> query = query(exchange);
+    metrics.start("HTTP_" + method + "_PLAYLISTS");
+    try {
+      if (path == null) {
+        CommandMetrics.recordInvalid();
+        sendMessage(exchange, 404, "No such operation");
+      } else if (path.isEmpty() && method.equals("GET")) {
+        List<String> names;
+        try (SessionManager.Lease lease = session(query)) {
+          names = new ArrayList<>(lease.player().playListDirectory.keySet());
+        }
+        CommandMetrics.recordResults(names.size());
+        StringBuilder json = new StringBuilder("[");
+        for (String name : names) {
+          json.append(json.length() > 1 ? "," : "").append(quote(name));
+        }
+        sendJson(exchange, 200, json.append(']').toString());
+      } else if (path.size() == 1 && method.equals("GET")) {
+        listPlaylist(exchange, query, path.get(0));
+      } else if (path.size() == 1 && method.equals("PUT")) {
+        run(exchange, query, player -> player.createPlaylist(path.get(0)));
+      } else if (path.size() == 1 && method.equals("DELETE")) {
+        run(exchange, query, player -> player.deletePlaylist(path.get(0)));
+      } else if (path.size() == 3 && path.get(1).equals("videos") && method.equals("PUT")) {
+        run(exchange, query, player -> player.addVideoToPlaylist(path.get(0), path.get(2)));
+      } else if (path.size() == 3 && path.get(1).equals("videos") && method.equals("DELETE")) {
+        run(exchange, query, player -> player.removeFromPlaylist(path.get(0), path.get(2)));
+      } else {
+        CommandMetrics.recordInvalid();
+        sendMessage(exchange, 404, "No such operation");
+      }
+    } finally {
+      metrics.stop();
+      exchange.close();
+    }
+  }
+
+  private void listPlaylist(HttpExchange exchange, Map<String, String> query, String name)
+      throws IOException {
+    VideoPlaylist playList;
+    int[] indexes;
+    try (SessionManager.Lease lease = session(query)) {
+      playList = lease.player().playListMap.get(name);
+      indexes = new int[playList == null ? 0 : playList.size()];
+      for (int i = 0; i < indexes.length; i++) {
+        indexes[i] = playList.indexAt(i);
+      }
+    }
+    if (playList == null) {
+      CommandMetrics.recordError();
+      sendMessage(exchange, 404, "Playlist does not exist");
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+    exchange.sendResponseHeaders(200, 0);
+    int count = 0;
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+      for (int index : indexes) {
+        Video video = library.getVideo(index);
+        if (video != null) {
+          out.write(videoJson(video));
+          out.write('\n');
+          count++;
+        }
+      }
+    }
+    CommandMetrics.recordResults(count);
+  }
+
+  /** An operation on the session of the requesting user. */
+  private interface Operation {
+    VideoPlayer.Outcome run(VideoPlayer player);
+  }
+
+  /** Runs the operation as the user and answers with what it printed and its outcome. */
+  private void run(HttpExchange exchange, Map<String, String> query, Operation operation)
+      throws IOException {
+    VideoPlayer.Outcome outcome;
+    String output;
+    try (SessionManager.Lease lease = session(query)) {
+      outcome = operation.run(lease.player());
+      output = lease.takeOutput().strip();
+    }
+    sendMessage(exchange, status(outcome), output);
+  }
+
+  private static int status(VideoPlayer.Outcome outcome) {
+    switch (outcome) {
+      case NOT_FOUND:
+        return 404;
+      case REFUSED:
+        return 409;
+      default:
+        return 200;
+    }
+  }
+
+  private SessionManager.Lease session(Map<String, String> query) {
+    return sessions.acquire(query.getOrDefault("user", "default"));
+  }
+
+  private String videoJson(Video video) {
+    StringBuilder json = new StringBuilder(128)
+        .append("{\"id\":").append(quote(video.getVideoId()))
+        .append(",\"title\":").append(quote(video.getTitle()))
+        .append(",\"tags\":[");
+    for (int i = 0; i < video.getTags().size(); i++) {
+      json.append(i > 0 ? "," : "").append(quote(video.getTags().get(i)));
+    }
+    json.append(']');
+    String reason = flags.getReason(video);
+    if (reason != null) {
+      json.append(",\"flagged\":").append(quote(reason));
+    }
+    return json.append('}').toString();
+  }
+
+  static String quote(String text) {
+    StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private static void sendMessage(HttpExchange exchange, int status, String message)
+      throws IOException {
+    sendJson(exchange, status, "{\"message\":" + quote(message) + "}");
+  }
+
+  private static void sendJson(HttpExchange exchange, int status, String json)
+      throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  /**
+   * Returns the decoded path segments after the context path, or null if the path only starts
+   * with the same characters, like {@code /videosXYZ}, which the server routes here too.
+   */
+  private static List<String> segments(HttpExchange exchange, String context) {
+    List<String> segments = new ArrayList<>();
+    String rest = exchange.getRequestURI().getRawPath().substring(context.length());
+    if (!rest.isEmpty() && !rest.startsWith("/")) {
+      return null;
+    }
+    for (String segment : rest.split("/")) {
+      if (!segment.isEmpty()) {
+        segments.add(URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8));
+      }
+    }
+    return segments;
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) {
+    Map<String, String> parameters = new HashMap<>();
+    String raw = exchange.getRequestURI().getRawQuery();
+    if (raw != null) {
+      for (String parameter : raw.split("&")) {
+        int equals = parameter.indexOf('=');
+        String name = equals < 0 ? parameter : parameter.substring(0, equals);
+        String value = equals < 0 ? "" : parameter.substring(equals + 1);
+        parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+            URLDecoder.decode(value, StandardCharsets.UTF_8));
+      }
+    }
+    return parameters;
+  }
+
+  /** Serves the default library on the given port, 8080 by default, until killed. */
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    CommandMetrics.global().registerMBean();
+    VideoFlags flags = new VideoFlags();
+    PlaybackHistory history = PlaybackHistory.fromProperties(1024);
+    SessionManager sessions = new SessionManager(VideoLibrary.shared(), flags, history,
+        Files.createTempDirectory("sessions"), 10_000);
+    HttpApi api = new HttpApi(VideoLibrary.shared(), flags, sessions, new InetSocketAddress(port));
+    System.out.println("Listening on http://localhost:" + api.port() + "/videos");
+  }
+}
@@ -0,0 +1,126 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streams a primary's {@link MutationLog} to {@link Replica}s over TCP.
+ *
+ * <p>A replica opens a connection and sends the id of the log it follows and the sequence number
+ * of the last entry it applied. If that is another log, such as the log of a primary that has
+ * since restarted, it is sent a reset carrying the id of this one and then the whole log.
+ * It is then sent every later entry, in order, as they are appended, each batch followed by a
+ * heartbeat carrying the primary's latest sequence number and how long ago the oldest entry not
+ * yet sent was appended; an idle connection gets a heartbeat every {@link #HEARTBEAT_MILLIS}.
+ * There are few replicas, so each gets a thread of its own.
+ */
+class LogShipper implements Closeable {
+
+  static final byte ENTRY = 1;
+  static final byte HEARTBEAT = 2;
+  static final byte RESET = 3;
+  static final long HEARTBEAT_MILLIS = 100;
+  private static final int BATCH = 512;
+
+  private final MutationLog log;
+  private final ServerSocket serverSocket;
+  private final Set<Socket> replicas = ConcurrentHashMap.newKeySet();
+  private final Thread acceptor;
+  private volatile boolean closed = false;
+
+  LogShipper(MutationLog log, InetSocketAddress address) throws IOException {
+    this.log = log;
+    serverSocket = new ServerSocket();
+    serverSocket.bind(address);
+    acceptor = new Thread(this::accept, "log-shipper");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /** Returns the port replicas should connect to. */
+  int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  private void accept() {
+    while (!closed) {
+      try {
+        Socket socket = serverSocket.accept();
+        replicas.add(socket);
+        Thread shipper = new Thread(() -> ship(socket),
+            "log-shipper-" + socket.getRemoteSocketAddress());
+        shipper.setDaemon(true);
+        shipper.start();
+      } catch (IOException e) {
+        if (!closed) {
+          System.err.println("Log shipper couldn't accept a replica: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void ship(Socket socket) {
+    try (socket;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            socket.getOutputStream()))) {
+      socket.setTcpNoDelay(true);
+      long logId = in.readLong();
+      long sent = in.readLong();
+      if (logId != log.id()) {
+        out.writeByte(RESET);
+        out.writeLong(log.id());
+        sent = 0;
+      }
+      while (!closed) {
+        List<MutationLog.Entry> entries = log.after(sent, BATCH, HEARTBEAT_MILLIS);
+        for (MutationLog.Entry entry : entries) {
+          out.writeByte(ENTRY);
+          entry.write(out);
+          sent = entry.sequence;
+        }
+        long pendingSince = log.appendedMillis(sent + 1);
+        out.writeByte(HEARTBEAT);
+        out.writeLong(log.lastSequence());
+        out.writeLong(pendingSince == 0 ? 0 : System.currentTimeMillis() - pendingSince);
+        out.flush();
+      }
+    } catch (IOException e) {
+      // The replica went away; it will reconnect and resume from what it applied.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      replicas.remove(socket);
+    }
+  }
+
+  /**
+   * Stops shipping and disconnects every replica. The acceptor thread is waited for, as the
+   * listening socket isn't released until it has left {@code accept}, so that a restarted
+   * primary can bind the same address as soon as this returns.
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+    for (Socket socket : replicas) {
+      socket.close();
+    }
+    try {
+      acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
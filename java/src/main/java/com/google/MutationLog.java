@@ -0,0 +1,86 @@
+package com.google;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An ordered, in-memory log of the commands that changed flags or playlists on a primary
+ * {@link ReplicatedNode}. Entries are numbered from 1 in the order they were applied, so a
+ * replica that applies them in the same order over the same catalog ends up in the same state.
+ * Each log has a random id, so a replica can tell when its primary has restarted with a new log.
+ */
+class MutationLog {
+
+  /** A command run by a user, and where it falls in the log. */
+  static class Entry {
+    final long sequence;
+    final long timestampMillis;
+    final String user;
+    final String command;
+
+    Entry(long sequence, long timestampMillis, String user, String command) {
+      this.sequence = sequence;
+      this.timestampMillis = timestampMillis;
+      this.user = user;
+      this.command = command;
+    }
+
+    void write(DataOutput out) throws IOException {
+      out.writeLong(sequence);
+      out.writeLong(timestampMillis);
+      out.writeUTF(user);
+      out.writeUTF(command);
+    }
+
+    static Entry read(DataInput in) throws IOException {
+      return new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readUTF());
+    }
+  }
+
+  private final long id = ThreadLocalRandom.current().nextLong();
+  private final List<Entry> entries = new ArrayList<>();
+
+  /** Returns the id of this log, which no other log shares. */
+  long id() {
+    return id;
+  }
+
+  /** Appends a command and wakes up anyone waiting for it. */
+  synchronized Entry append(String user, String command) {
+    Entry entry = new Entry(entries.size() + 1, System.currentTimeMillis(), user, command);
+    entries.add(entry);
+    notifyAll();
+    return entry;
+  }
+
+  /** Returns the sequence number of the latest entry, or 0 if there is none. */
+  synchronized long lastSequence() {
+    return entries.size();
+  }
+
+  /** Returns when the entry with the sequence number was appended, or 0 if there is none. */
+  synchronized long appendedMillis(long sequence) {
+    return sequence >= 1 && sequence <= entries.size()
+        ? entries.get((int) sequence - 1).timestampMillis : 0;
+  }
+
+  /**
+   * Returns up to max entries following the sequence number, waiting up to the timeout for one to
+   * be appended if there are none yet.
+   */
+  synchronized List<Entry> after(long sequence, int max, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    while (entries.size() <= sequence && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    int from = (int) Math.min(sequence, entries.size());
+    return new ArrayList<>(entries.subList(from, Math.min(entries.size(), from + max)));
+  }
+}
@@ -0,0 +1,353 @@
+package com.google;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A class used to record playback events shared by any number of players.
+ *
+ * <p>Recording an event takes no lock: it bumps a per-video LongAdder for plays, claims a slot of
+ * an in-memory ring buffer with one atomic increment and writes it, stamping the slot before and
+ * after so readers can tell a complete event from one being written or overwritten. Everything
+ * else happens when the buffer is drained: by a background writer thread if a log directory is
+ * given, otherwise by the recording thread every half buffer and before an aggregate query.
+ * Draining appends the events to segment files of fixed-size records and re-ranks the videos
+ * played for {@link #mostPlayed}, by their exact counters. If the drain falls more than a full
+ * buffer behind, the oldest events are counted as lost instead of blocking players, and the
+ * ranking is rebuilt from the counters.
+ */
+class PlaybackHistory implements AutoCloseable {
+
+  enum EventType { PLAY, STOP, PAUSE, CONTINUE }
+
+  private static final long SEGMENT_BYTES = 64L << 20;
+  private static final int RECORD_BYTES = Long.BYTES + Integer.BYTES + 1;
+
+  private final int mask;
+  private final long[] times;
+  private final int[] videos;
+  private final byte[] types;
+  // Per slot, see written(): odd while an event is being written, even once it is complete.
+  private final AtomicLongArray stamps;
+  private final AtomicLong claimed = new AtomicLong();
+
+  private final Map<Integer, LongAdder> playCounts = new ConcurrentHashMap<>();
+  private final LongAdder totalPlays = new LongAdder();
+  // Keyed by the library and the flags, which compare by identity.
+  private final Map<List<Object>, PopularitySampler> samplers = new ConcurrentHashMap<>();
+
+  private final Object drainLock = new Object();
+  private long drained = 0;
+  private long lostEvents = 0;
+  private final Map<Integer, Long> rankedCounts = new HashMap<>();
+  private final TreeMap<Long, Set<Integer>> videosByCount = new TreeMap<>();
+
+  private final Path logDirectory;
+  private DataOutputStream segment;
+  private int segmentNumber = 0;
+  private long segmentBytes = 0;
+  private final Thread writer;
+  private volatile boolean closed = false;
+
+  /** Creates an in-memory history holding the most recent events in a buffer of the capacity. */
+  PlaybackHistory(int capacity) {
+    this(capacity, null);
+  }
+
+  /**
+   * Creates a history with a buffer of the capacity, logging to the directory named by
+   * {@code -Dplayback.log} if it is set. The log is drained and closed when the process exits.
+   */
+  static PlaybackHistory fromProperties(int capacity) {
+    String directory = System.getProperty("playback.log");
+    if (directory == null) {
+      return new PlaybackHistory(capacity);
+    }
+    PlaybackHistory history = new PlaybackHistory(capacity, Path.of(directory));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        history.close();
+      } catch (IOException e) {
+        System.err.println("Couldn't close playback history: " + e);
+      }
+    }, "playback-history-close"));
+    return history;
+  }
+
+  /**
+   * Creates a history that also appends every event to segment files in the log directory from
+   * a background thread.
+   */
+  PlaybackHistory(int capacity, Path logDirectory) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+    this.mask = size - 1;
+    this.times = new long[size];
+    this.videos = new int[size];
+    this.types = new byte[size];
+    this.stamps = new AtomicLongArray(size);
+    for (int slot = 0; slot < size; slot++) {
+      stamps.set(slot, written(slot - size));
+    }
+    this.logDirectory = logDirectory;
+    if (logDirectory != null) {
+      writer = new Thread(this::writeLoop, "playback-history-writer");
+      writer.setDaemon(true);
+      writer.start();
+    } else {
+      writer = null;
+    }
+  }
+
+  /** Returns the stamp of a slot once the event with the sequence number is written to it. */
+  private static long written(long sequence) {
+    return 2 * sequence + 2;
+  }
+
+  /** Records an event for the video. */
+  void record(EventType type, Video video) {
+    int index = video.getIndex();
+    if (type == EventType.PLAY) {
+      // Counted before the event is published, so a drained play is always in the count.
+      playCounts.computeIfAbsent(index, i -> new LongAdder()).increment();
+      totalPlays.increment();
+    }
+    long sequence = claimed.getAndIncrement();
+    int slot = (int) (sequence & mask);
+    long previous = written(sequence - mask - 1);
+    while (stamps.get(slot) != previous) {
+      // The writer of this slot a full buffer ago has not finished yet.
+      Thread.onSpinWait();
+    }
+    stamps.set(slot, written(sequence) - 1);
+    VarHandle.storeStoreFence();
+    times[slot] = System.currentTimeMillis();
+    videos[slot] = index;
+    types[slot] = (byte) type.ordinal();
+    stamps.set(slot, written(sequence));
+    if (writer == null && (sequence & (mask >> 1)) == mask >> 1) {
+      // Without a writer, drain every half buffer, so the ranking never has to be rebuilt.
+      drain();
+    }
+  }
+
+  /** Returns the number of plays of all videos. */
+  long totalPlays() {
+    return totalPlays.sum();
+  }
+
+  /** Returns how many times the video has been played. */
+  long playCount(Video video) {
+    LongAdder count = playCounts.get(video.getIndex());
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * Returns the sampler of videos of the library weighted by their plays in this history, shared
+   * by every player using the same library, flags and history.
+   */
+  PopularitySampler popularitySampler(VideoLibrary library, VideoFlags flags) {
+    return samplers.computeIfAbsent(List.of(library, flags),
+        key -> new PopularitySampler(library, flags, this));
+  }
+
+  /** Returns the indexes of up to k videos with the most plays, most played first. */
+  List<Integer> mostPlayed(int k) {
+    drain();
+    List<Integer> result = new ArrayList<>(k);
+    synchronized (drainLock) {
+      for (Set<Integer> tied : videosByCount.descendingMap().values()) {
+        for (Integer video : tied) {
+          if (result.size() == k) {
+            return result;
+          }
+          result.add(video);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the indexes of up to k distinct videos most recently played, latest first. Only
+   * plays still held in the buffer are considered.
+   */
+  List<Integer> recentlyPlayed(int k) {
+    List<Integer> result = new ArrayList<>(k);
+    BitSet seen = new BitSet();
+    long end = claimed.get();
+    long oldest = Math.max(0, end - mask - 1);
+    for (long sequence = end - 1; sequence >= oldest && result.size() < k; sequence--) {
+      int slot = (int) (sequence & mask);
+      long stamp = stamps.get(slot);
+      int video = videos[slot];
+      byte type = types[slot];
+      VarHandle.loadLoadFence();
+      if (stamp == written(sequence) && stamps.get(slot) == stamp
+          && type == EventType.PLAY.ordinal() && !seen.get(video)) {
+        seen.set(video);
+        result.add(video);
+      }
+    }
+    return result;
+  }
+
+  /** Returns the number of events that were overwritten before they could be drained. */
+  long lostEvents() {
+    synchronized (drainLock) {
+      return lostEvents;
+    }
+  }
+
+  /**
+   * Moves every complete event out of the buffer into the ranking and, if enabled, the log,
+   * stopping at the first one still being written.
+   */
+  void drain() {
+    synchronized (drainLock) {
+      long lostBefore = lostEvents;
+      long end = claimed.get();
+      if (end - drained > mask + 1) {
+        lostEvents += end - drained - mask - 1;
+        drained = end - mask - 1;
+      }
+      long[] batchTimes = new long[(int) (end - drained)];
+      int[] batchVideos = new int[batchTimes.length];
+      byte[] batchTypes = new byte[batchTimes.length];
+      int count = 0;
+      for (; drained < end; drained++) {
+        int slot = (int) (drained & mask);
+        long stamp = stamps.get(slot);
+        if (stamp < written(drained)) {
+          break;
+        }
+        batchTimes[count] = times[slot];
+        batchVideos[count] = videos[slot];
+        batchTypes[count] = types[slot];
+        VarHandle.loadLoadFence();
+        if (stamp == written(drained) && stamps.get(slot) == stamp) {
+          count++;
+        } else {
+          lostEvents++;
+        }
+      }
+      if (lostEvents != lostBefore) {
+        rankAll();
+      } else {
+        for (int i = 0; i < count; i++) {
+          if (batchTypes[i] == EventType.PLAY.ordinal()) {
+            rank(batchVideos[i]);
+          }
+        }
+      }
+      if (logDirectory != null && count > 0) {
+        try {
+          append(batchTimes, batchVideos, batchTypes, count);
+        } catch (IOException e) {
+          System.out.println("Couldn't write playback history");
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /** Moves the video to the rank of its current play count. Needs the drain lock. */
+  private void rank(int video) {
+    long count = playCounts.get(video).sum();
+    Long previous = rankedCounts.put(video, count);
+    if (previous != null) {
+      if (previous == count) {
+        return;
+      }
+      Set<Integer> tied = videosByCount.get(previous);
+      tied.remove(video);
+      if (tied.isEmpty()) {
+        videosByCount.remove(previous);
+      }
+    }
+    videosByCount.computeIfAbsent(count, c -> new LinkedHashSet<>()).add(video);
+  }
+
+  /**
+   * Ranks every video played from its counter, for when lost events leave the ranking unable
+   * to tell which videos were played. Needs the drain lock.
+   */
+  private void rankAll() {
+    rankedCounts.clear();
+    videosByCount.clear();
+    playCounts.keySet().stream().sorted().forEach(this::rank);
+  }
+
+  private void append(long[] batchTimes, int[] batchVideos, byte[] batchTypes, int count)
+      throws IOException {
+    for (int i = 0; i < count; i++) {
+      if (segment == null || segmentBytes + RECORD_BYTES > SEGMENT_BYTES) {
+        rollSegment();
+      }
+      segment.writeLong(batchTimes[i]);
+      segment.writeInt(batchVideos[i]);
+      segment.writeByte(batchTypes[i]);
+      segmentBytes += RECORD_BYTES;
+    }
+    segment.flush();
+  }
+
+  private void rollSegment() throws IOException {
+    if (segment != null) {
+      segment.close();
+    }
+    Files.createDirectories(logDirectory);
+    Path file;
+    do {
+      file = logDirectory.resolve(String.format("playback-%06d.log", segmentNumber++));
+    } while (Files.exists(file));
+    segment = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+    segmentBytes = 0;
+  }
+
+  private void writeLoop() {
+    while (!closed) {
+      drain();
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /** Stops the writer thread, draining and closing the log. */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    if (writer != null) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    drain();
+    synchronized (drainLock) {
+      if (segment != null) {
+        segment.close();
+        segment = null;
+      }
+    }
+  }
+}
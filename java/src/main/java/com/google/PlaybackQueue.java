@@ -0,0 +1,95 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A class used to step through a playlist, in order or shuffled.
+ *
+ * <p>A shuffle is a Fisher-Yates permutation generated one step at a time as the queue advances:
+ * only the positions swapped so far are remembered, so starting a shuffle costs nothing and never
+ * copies the playlist, and each step costs constant time. Positions already visited are kept so
+ * the queue can go back. Removed and flagged videos are skipped. Positions refer to the playlist
+ * as it is when they are reached, and the queue ends at the length the playlist had when it was
+ * started.
+ */
+class PlaybackQueue {
+
+  private final VideoPlaylist playlist;
+  private final int length;
+  private final Random random;
+  private final Map<Integer, Integer> swapped = new HashMap<>();
+  private int[] shuffled = new int[0];
+  private int generated = 0;
+  private int position = -1;
+
+  /** Creates a queue over the playlist, shuffled by the random source unless it is null. */
+  PlaybackQueue(VideoPlaylist playlist, Random random) {
+    this.playlist = playlist;
+    this.length = playlist.size();
+    this.random = random;
+  }
+
+  /** Returns the name of the playlist being played. */
+  String name() {
+    return playlist.name;
+  }
+
+  /** Moves to the next playable video and returns it, or returns null at the end. */
+  Video next(VideoLibrary library, VideoFlags flags) {
+    while (position + 1 < length) {
+      position++;
+      Video video = playable(slot(position), library, flags);
+      if (video != null) {
+        return video;
+      }
+    }
+    position = length;
+    return null;
+  }
+
+  /**
+   * Moves back to the previous playable video and returns it, or returns null and stays put if
+   * there is none.
+   */
+  Video previous(VideoLibrary library, VideoFlags flags) {
+    for (int i = position - 1; i >= 0; i--) {
+      Video video = playable(slot(i), library, flags);
+      if (video != null) {
+        position = i;
+        return video;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the playlist slot played at the position, extending the shuffle if needed. */
+  private int slot(int position) {
+    if (random == null) {
+      return position;
+    }
+    while (generated <= position) {
+      int i = generated;
+      int j = i + random.nextInt(length - i);
+      int atI = swapped.getOrDefault(i, i);
+      int atJ = swapped.getOrDefault(j, j);
+      swapped.put(j, atI);
+      swapped.remove(i);
+      if (generated == shuffled.length) {
+        shuffled = Arrays.copyOf(shuffled, Math.max(16, generated * 2));
+      }
+      shuffled[generated++] = atJ;
+    }
+    return shuffled[position];
+  }
+
+  private Video playable(int slot, VideoLibrary library, VideoFlags flags) {
+    if (slot >= playlist.size()) {
+      return null;
+    }
+    Video video = library.getVideo(playlist.indexAt(slot));
+    return video == null || flags.isFlagged(video) ? null : video;
+  }
+}
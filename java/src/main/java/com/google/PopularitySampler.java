@@ -0,0 +1,139 @@
+package com.google;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A class used to pick random videos in proportion to their popularity, in constant time per
+ * draw.
+ *
+ * <p>The weight of a video is one plus its play count, so unplayed videos can still be picked;
+ * flagged and removed videos weigh nothing. The weights are frozen into an {@link AliasTable}.
+ * Once flags or the library change, or plays have grown by a tenth since the last build, the
+ * table is rebuilt on a background thread while draws keep using the previous one. A draw that
+ * hits a video flagged or removed since then is retried. A table replaces the current one only
+ * if it was built from state at least as new, so a slow rebuild never undoes a later one. One
+ * sampler is shared by every player of a history, see {@link PlaybackHistory#popularitySampler}.
+ */
+class PopularitySampler {
+
+  private static final int MAX_ATTEMPTS = 16;
+  private static final ExecutorService REBUILDER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "popularity-sampler-rebuild");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** An alias table together with the state it was built from. */
+  private static class Snapshot {
+    final AliasTable table;
+    final long libraryVersion;
+    final long flagsVersion;
+    final long totalPlays;
+
+    Snapshot(AliasTable table, long libraryVersion, long flagsVersion, long totalPlays) {
+      this.table = table;
+      this.libraryVersion = libraryVersion;
+      this.flagsVersion = flagsVersion;
+      this.totalPlays = totalPlays;
+    }
+
+    boolean isAtLeastAsNewAs(Snapshot other) {
+      return libraryVersion >= other.libraryVersion && flagsVersion >= other.flagsVersion
+          && totalPlays >= other.totalPlays;
+    }
+  }
+
+  private final VideoLibrary library;
+  private final VideoFlags flags;
+  private final PlaybackHistory history;
+  private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+  PopularitySampler(VideoLibrary library, VideoFlags flags, PlaybackHistory history) {
+    this.library = library;
+    this.flags = flags;
+    this.history = history;
+  }
+
+  /** Returns a random unflagged video, or null if there is none. */
+  Video sample(Random random) {
+    Snapshot current = snapshot.get();
+    if (current == null) {
+      current = publish(build());
+    } else if (isStale(current) && rebuilding.compareAndSet(false, true)) {
+      REBUILDER.execute(() -> {
+        try {
+          publish(build());
+        } finally {
+          rebuilding.set(false);
+        }
+      });
+    }
+    Video video = draw(current, random);
+    if (video != null) {
+      return video;
+    }
+    // The table is badly out of date; pay for a synchronous rebuild rather than guess.
+    return draw(publish(build()), random);
+  }
+
+  /**
+   * Draws from the table until it hits a video that still exists and isn't flagged, or returns
+   * null after {@link #MAX_ATTEMPTS} misses.
+   */
+  private Video draw(Snapshot current, Random random) {
+    if (current.table.isEmpty()) {
+      return null;
+    }
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Video video = library.getVideo(current.table.sample(random));
+      if (video != null && !flags.isFlagged(video)) {
+        return video;
+      }
+    }
+    return null;
+  }
+
+  private boolean isStale(Snapshot current) {
+    return current.libraryVersion != library.version()
+        || current.flagsVersion != flags.version()
+        || history.totalPlays() > current.totalPlays + current.totalPlays / 10;
+  }
+
+  /**
+   * Makes the built table current unless one built from newer state already is, and returns the
+   * table now current.
+   */
+  private Snapshot publish(Snapshot built) {
+    while (true) {
+      Snapshot current = snapshot.get();
+      if (current != null && !built.isAtLeastAsNewAs(current)) {
+        return current;
+      }
+      if (snapshot.compareAndSet(current, built)) {
+        return built;
+      }
+    }
+  }
+
+  /** Builds a table over the current library, flags and play counts. */
+  private Snapshot build() {
+    long libraryVersion = library.version();
+    long flagsVersion = flags.version();
+    long totalPlays = history.totalPlays();
+    double[] weights = new double[library.indexCount()];
+    BitSet playable = flags.removeFlagged(library.allVideos());
+    for (int i = playable.nextSetBit(0); i >= 0; i = playable.nextSetBit(i + 1)) {
+      Video video = library.getVideo(i);
+      if (video != null && i < weights.length) {
+        weights[i] = 1 + history.playCount(video);
+      }
+    }
+    return new Snapshot(new AliasTable(weights), libraryVersion, flagsVersion, totalPlays);
+  }
+}
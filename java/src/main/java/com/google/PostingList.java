@@ -0,0 +1,262 @@
+package com.google;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A class used to hold the set of video indexes carrying one token, compressed the way roaring
+ * bitmaps are: indexes are grouped by their high 16 bits, and each group is held as a sorted
+ * array of its low 16 bits while it has at most {@link #ARRAY_LIMIT} of them, and as a bitmap of
+ * 65536 bits once it has more, until removals bring it back to half that. A token carried by a
+ * handful of videos so costs a few bytes rather than a bitmap as long as the highest index, while
+ * a common one costs at most a bit per index.
+ *
+ * <p>Not thread-safe; the library only mutates posting lists under its write lock.
+ */
+final class PostingList {
+
+  /** The most indexes a group holds as an array; at 4096 an array and a bitmap are both 8 kB. */
+  static final int ARRAY_LIMIT = 4096;
+
+  private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+
+  /** The indexes of one group, by their low 16 bits. */
+  private interface Container {
+    /** Adds the value, returning the container now holding the group. */
+    Container add(char value);
+
+    /** Removes the value, returning the container now holding the group. */
+    Container remove(char value);
+
+    boolean contains(char value);
+
+    int cardinality();
+
+    /** Sets the bit of every index of the group in the words of a bitmap. */
+    void orInto(long[] words, int base);
+
+    void forEach(IntConsumer action, int base);
+  }
+
+  private static final class ArrayContainer implements Container {
+    private char[] values = new char[4];
+    private int size = 0;
+
+    @Override
+    public Container add(char value) {
+      int position = Arrays.binarySearch(values, 0, size, value);
+      if (position >= 0) {
+        return this;
+      }
+      if (size == ARRAY_LIMIT) {
+        return toBitmap().add(value);
+      }
+      position = -position - 1;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, Math.min(2 * size, ARRAY_LIMIT));
+      }
+      System.arraycopy(values, position, values, position + 1, size - position);
+      values[position] = value;
+      size++;
+      return this;
+    }
+
+    @Override
+    public Container remove(char value) {
+      int position = Arrays.binarySearch(values, 0, size, value);
+      if (position >= 0) {
+        System.arraycopy(values, position + 1, values, position, size - position - 1);
+        size--;
+        if (size > 0 && size <= values.length / 4) {
+          values = Arrays.copyOf(values, Math.max(size * 2, 4));
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public boolean contains(char value) {
+      return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    @Override
+    public int cardinality() {
+      return size;
+    }
+
+    @Override
+    public void orInto(long[] words, int base) {
+      for (int i = 0; i < size; i++) {
+        int index = base + values[i];
+        words[index >>> 6] |= 1L << index;
+      }
+    }
+
+    @Override
+    public void forEach(IntConsumer action, int base) {
+      for (int i = 0; i < size; i++) {
+        action.accept(base + values[i]);
+      }
+    }
+
+    private BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer();
+      for (int i = 0; i < size; i++) {
+        bitmap.add(values[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  private static final class BitmapContainer implements Container {
+    private final long[] words = new long[BITMAP_WORDS];
+    private int cardinality = 0;
+
+    @Override
+    public Container add(char value) {
+      long bit = 1L << value;
+      if ((words[value >>> 6] & bit) == 0) {
+        words[value >>> 6] |= bit;
+        cardinality++;
+      }
+      return this;
+    }
+
+    @Override
+    public Container remove(char value) {
+      long bit = 1L << value;
+      if ((words[value >>> 6] & bit) != 0) {
+        words[value >>> 6] &= ~bit;
+        cardinality--;
+        if (cardinality <= ARRAY_LIMIT / 2) {
+          return toArray();
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public boolean contains(char value) {
+      return (words[value >>> 6] & 1L << value) != 0;
+    }
+
+    @Override
+    public int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    public void orInto(long[] words, int base) {
+      int offset = base >>> 6;
+      int length = Math.min(BITMAP_WORDS, words.length - offset);
+      for (int i = 0; i < length; i++) {
+        words[offset + i] |= this.words[i];
+      }
+    }
+
+    @Override
+    public void forEach(IntConsumer action, int base) {
+      for (int i = 0; i < BITMAP_WORDS; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          action.accept(base + (i << 6) + Long.numberOfTrailingZeros(word));
+        }
+      }
+    }
+
+    private ArrayContainer toArray() {
+      ArrayContainer array = new ArrayContainer();
+      forEach(value -> array.add((char) value), 0);
+      return array;
+    }
+  }
+
+  // The high 16 bits of the indexes of each group, ascending, and the groups themselves.
+  private char[] keys = new char[1];
+  private Container[] containers = new Container[1];
+  private int groups = 0;
+  private int cardinality = 0;
+
+  /** Adds the index, returning whether it was absent. */
+  boolean add(int index) {
+    char key = (char) (index >>> 16);
+    int position = Arrays.binarySearch(keys, 0, groups, key);
+    if (position < 0) {
+      position = -position - 1;
+      if (groups == keys.length) {
+        keys = Arrays.copyOf(keys, 2 * groups);
+        containers = Arrays.copyOf(containers, 2 * groups);
+      }
+      System.arraycopy(keys, position, keys, position + 1, groups - position);
+      System.arraycopy(containers, position, containers, position + 1, groups - position);
+      keys[position] = key;
+      containers[position] = new ArrayContainer();
+      groups++;
+    }
+    Container container = containers[position];
+    int before = container.cardinality();
+    container = container.add((char) index);
+    containers[position] = container;
+    cardinality += container.cardinality() - before;
+    return container.cardinality() != before;
+  }
+
+  /** Removes the index, returning whether it was present. */
+  boolean remove(int index) {
+    int position = Arrays.binarySearch(keys, 0, groups, (char) (index >>> 16));
+    if (position < 0) {
+      return false;
+    }
+    Container container = containers[position];
+    int before = container.cardinality();
+    container = container.remove((char) index);
+    cardinality += container.cardinality() - before;
+    if (container.cardinality() == 0) {
+      System.arraycopy(keys, position + 1, keys, position, groups - position - 1);
+      System.arraycopy(containers, position + 1, containers, position, groups - position - 1);
+      groups--;
+      containers[groups] = null;
+    } else {
+      containers[position] = container;
+    }
+    return container.cardinality() != before;
+  }
+
+  boolean contains(int index) {
+    int position = Arrays.binarySearch(keys, 0, groups, (char) (index >>> 16));
+    return position >= 0 && containers[position].contains((char) index);
+  }
+
+  boolean isEmpty() {
+    return cardinality == 0;
+  }
+
+  /** Returns the number of indexes in the list. */
+  int cardinality() {
+    return cardinality;
+  }
+
+  /**
+   * Sets the bit of every index in the list in the words of a bitmap, as laid out by
+   * {@link java.util.BitSet#valueOf(long[])}, which must be long enough to hold them all.
+   */
+  void orInto(long[] words) {
+    for (int i = 0; i < groups; i++) {
+      containers[i].orInto(words, keys[i] << 16);
+    }
+  }
+
+  /** Calls the action with every index in the list, in ascending order. */
+  void forEach(IntConsumer action) {
+    for (int i = 0; i < groups; i++) {
+      containers[i].forEach(action, keys[i] << 16);
+    }
+  }
+
+  /** Returns every index in the list, in ascending order. */
+  int[] toArray() {
+    int[] result = new int[cardinality];
+    int[] position = new int[1];
+    forEach(index -> result[position[0]++] = index);
+    return result;
+  }
+}
@@ -0,0 +1,218 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * A class used to answer "related videos" queries from tag co-occurrence.
+ *
+ * <p>Two videos are related when they share tags, scored by the Jaccard similarity of their tag
+ * sets. The {@link #TOP_K} best matches of every video are ranked in parallel by a background
+ * thread as soon as the index is created, from the posting lists of its tags, and re-ranked for
+ * the videos sharing a tag with a changed video whenever the library changes. A video asked
+ * about before the background thread has reached it is ranked on the spot.
+ *
+ * <p>Tags carried by more than {@link #MAX_TAG_FANOUT} videos carry little signal and would make
+ * that work quadratic, so they count towards the score but never produce candidates, and at most
+ * {@link #MAX_CANDIDATES} candidates are scored per video, taken from its rarest tags first. When
+ * flags hide too many of the best matches, every candidate is ranked again.
+ */
+class RelatedVideosIndex implements VideoLibrary.Listener {
+
+  static final int TOP_K = 20;
+  static final int MAX_TAG_FANOUT = 10_000;
+  static final int MAX_CANDIDATES = 2_000;
+
+  private static final int[] NONE = new int[0];
+
+  private final VideoLibrary library;
+  // The best matches of every video asked about, best first.
+  private final Map<Integer, int[]> related = new ConcurrentHashMap<>();
+  private final CountDownLatch precomputed = new CountDownLatch(1);
+
+  /** Creates the index and starts ranking every video of the library in the background. */
+  RelatedVideosIndex(VideoLibrary library) {
+    this.library = library;
+    library.addListener(this);
+    Thread precompute = new Thread(this::precompute, "related-videos-precompute");
+    precompute.setDaemon(true);
+    precompute.start();
+  }
+
+  /**
+   * Ranks the best matches of every video not ranked yet, in parallel. Videos added meanwhile are
+   * ranked when first asked about.
+   */
+  private void precompute() {
+    try {
+      IntStream.range(0, library.indexCount()).parallel()
+          .forEach(index -> related.computeIfAbsent(index, i -> ranked(i, TOP_K)));
+    } finally {
+      precomputed.countDown();
+    }
+  }
+
+  /** Waits until every video has been ranked once. Returns false if the time ran out first. */
+  boolean awaitPrecomputed(long timeout, TimeUnit unit) throws InterruptedException {
+    return precomputed.await(timeout, unit);
+  }
+
+  /** Returns up to count unflagged videos related to the video, best match first. */
+  List<Video> relatedTo(Video video, VideoFlags flags, int count) {
+    int index = video.getIndex();
+    int[] best = related.computeIfAbsent(index, i -> ranked(i, TOP_K));
+    if (best == null) {
+      return new ArrayList<>();
+    }
+    List<Video> result = unflagged(best, flags, count);
+    if (result.size() < count && best.length == TOP_K) {
+      int[] all = ranked(index, Integer.MAX_VALUE);
+      if (all != null) {
+        result = unflagged(all, flags, count);
+      }
+    }
+    return result;
+  }
+
+  private List<Video> unflagged(int[] ranked, VideoFlags flags, int count) {
+    List<Video> result = new ArrayList<>(count);
+    for (int index : ranked) {
+      Video candidate = library.getVideo(index);
+      if (candidate != null && !flags.isFlagged(candidate)) {
+        result.add(candidate);
+        if (result.size() == count) {
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void videosChanged(List<Video> changed) {
+    BitSet affected = new BitSet();
+    for (Video video : changed) {
+      affected.set(video.getIndex());
+      for (String tag : video.getTags()) {
+        int[] tagged = library.tagPostings(library.tagToken(tag), MAX_TAG_FANOUT);
+        if (tagged != null) {
+          for (int other : tagged) {
+            affected.set(other);
+          }
+        }
+      }
+    }
+    affected.stream().parallel()
+        .forEach(index -> related.computeIfPresent(index, (i, old) -> ranked(i, TOP_K)));
+  }
+
+  /**
+   * Returns up to limit videos sharing a tag with the video, best match first, or null if the
+   * video has been removed. Rankings of no more than {@link #TOP_K} score a bounded number of
+   * candidates.
+   */
+  private int[] ranked(int index, int limit) {
+    if (library.getVideo(index) == null) {
+      return null;
+    }
+    int[] tags = distinctTags(index);
+    if (tags.length == 0) {
+      return NONE;
+    }
+    int[] candidates = candidates(index, tags, limit <= TOP_K ? MAX_CANDIDATES : Integer.MAX_VALUE);
+    List<Match> matches = new ArrayList<>(candidates.length);
+    for (int other : candidates) {
+      int[] otherTags = distinctTags(other);
+      if (otherTags.length > 0) {
+        int common = 0;
+        for (int i = 0, j = 0; i < tags.length && j < otherTags.length; ) {
+          if (tags[i] < otherTags[j]) {
+            i++;
+          } else if (tags[i] > otherTags[j]) {
+            j++;
+          } else {
+            common++;
+            i++;
+            j++;
+          }
+        }
+        double score = (double) common / (tags.length + otherTags.length - common);
+        matches.add(new Match(other, score));
+      }
+    }
+    matches.sort((a, b) -> Double.compare(b.score, a.score));
+    int[] best = new int[Math.min(limit, matches.size())];
+    for (int i = 0; i < best.length; i++) {
+      best[i] = matches.get(i).index;
+    }
+    return best;
+  }
+
+  /**
+   * Returns the other videos carrying any of the tags that few enough videos carry, ascending and
+   * without duplicates. Posting lists are taken from the shortest up while they fit in the cap,
+   * but the shortest one is always taken.
+   */
+  private int[] candidates(int index, int[] tags, int cap) {
+    List<int[]> postings = new ArrayList<>(tags.length);
+    for (int tag : tags) {
+      int[] tagged = library.tagPostings(tag, MAX_TAG_FANOUT);
+      if (tagged != null) {
+        postings.add(tagged);
+      }
+    }
+    postings.sort(Comparator.comparingInt(tagged -> tagged.length));
+    int total = 0;
+    int used = 0;
+    while (used < postings.size()
+        && (used == 0 || (long) total + postings.get(used).length <= cap)) {
+      total += postings.get(used++).length;
+    }
+    int[] all = new int[total];
+    int length = 0;
+    for (int[] tagged : postings.subList(0, used)) {
+      System.arraycopy(tagged, 0, all, length, tagged.length);
+      length += tagged.length;
+    }
+    Arrays.sort(all);
+    int distinct = 0;
+    for (int i = 0; i < all.length; i++) {
+      if (all[i] != index && (distinct == 0 || all[distinct - 1] != all[i])) {
+        all[distinct++] = all[i];
+      }
+    }
+    return Arrays.copyOf(all, distinct);
+  }
+
+  /** A candidate video and its similarity score. */
+  private static class Match {
+    final int index;
+    final double score;
+
+    Match(int index, double score) {
+      this.index = index;
+      this.score = score;
+    }
+  }
+
+  /** Returns the ids of the video's normalized tags, sorted and without duplicates. */
+  private int[] distinctTags(int index) {
+    int[] tags = library.tagTokens(index);
+    Arrays.sort(tags);
+    int distinct = 0;
+    for (int i = 0; i < tags.length; i++) {
+      if (distinct == 0 || tags[distinct - 1] != tags[i]) {
+        tags[distinct++] = tags[i];
+      }
+    }
+    return distinct == tags.length ? tags : Arrays.copyOf(tags, distinct);
+  }
+}
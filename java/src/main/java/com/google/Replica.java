@@ -0,0 +1,143 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps a replica {@link ReplicatedNode} up to date with its primary's {@link LogShipper}.
+ *
+ * <p>A background thread applies entries as they arrive. If the connection drops, it reconnects
+ * and resumes after the last entry it applied; a replica that restarts from scratch replays the
+ * whole log, and so does one whose primary has restarted with a new log, after forgetting what
+ * it applied from the old one. How far behind it is can be read here or over JMX, measured
+ * against the head of the primary's log.
+ */
+class Replica implements ReplicaMXBean, Closeable {
+
+  private static final long RECONNECT_MILLIS = 200;
+
+  private final ReplicatedNode node;
+  private final InetSocketAddress primary;
+  private final Thread follower;
+  // The id of the log followed, 0 until the primary has sent it.
+  private long logId = 0;
+  private volatile long appliedSequence = 0;
+  private volatile long primarySequence = 0;
+  // When, by this replica's clock, the oldest entry it has not applied was appended.
+  private volatile long pendingSinceMillis = 0;
+  private volatile boolean connected = false;
+  private volatile Socket socket;
+  private volatile boolean closed = false;
+
+  Replica(ReplicatedNode node, InetSocketAddress primary) {
+    this.node = node;
+    this.primary = primary;
+    follower = new Thread(this::follow, "replica-follower");
+    follower.setDaemon(true);
+    follower.start();
+  }
+
+  private void follow() {
+    while (!closed) {
+      try (Socket connection = new Socket(primary.getAddress(), primary.getPort())) {
+        socket = connection;
+        connection.setTcpNoDelay(true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            connection.getOutputStream()));
+        out.writeLong(logId);
+        out.writeLong(appliedSequence);
+        out.flush();
+        connected = true;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            connection.getInputStream()));
+        while (!closed) {
+          byte type = in.readByte();
+          if (type == LogShipper.ENTRY) {
+            MutationLog.Entry entry = MutationLog.Entry.read(in);
+            if (entry.sequence == appliedSequence + 1) {
+              node.apply(entry);
+              appliedSequence = entry.sequence;
+              primarySequence = Math.max(primarySequence, entry.sequence);
+            }
+          } else if (type == LogShipper.HEARTBEAT) {
+            primarySequence = in.readLong();
+            pendingSinceMillis = System.currentTimeMillis() - in.readLong();
+          } else if (type == LogShipper.RESET) {
+            logId = in.readLong();
+            node.reset();
+            appliedSequence = 0;
+            primarySequence = 0;
+          } else {
+            throw new IOException("Unexpected message type " + type);
+          }
+        }
+      } catch (IOException e) {
+        // Not reachable yet, or gone; try again shortly.
+      } finally {
+        connected = false;
+      }
+      try {
+        Thread.sleep(RECONNECT_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public long getAppliedSequence() {
+    return appliedSequence;
+  }
+
+  @Override
+  public long getPrimarySequence() {
+    return primarySequence;
+  }
+
+  @Override
+  public long getLagEntries() {
+    return Math.max(0, primarySequence - appliedSequence);
+  }
+
+  @Override
+  public long getLagMillis() {
+    if (getLagEntries() == 0) {
+      return 0;
+    }
+    return Math.max(0, System.currentTimeMillis() - pendingSinceMillis);
+  }
+
+  @Override
+  public boolean isConnected() {
+    return connected;
+  }
+
+  void registerMBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(this, new ObjectName("com.google:type=Replica"));
+    } catch (JMException e) {
+      System.out.println("Couldn't register replica MBean");
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    follower.interrupt();
+    Socket connection = socket;
+    if (connection != null) {
+      connection.close();
+    }
+  }
+}
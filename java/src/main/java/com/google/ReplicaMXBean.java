@@ -0,0 +1,23 @@
+package com.google;
+
+/** The JMX view of a {@link Replica}. */
+public interface ReplicaMXBean {
+
+  /** Returns the sequence number of the last log entry applied. */
+  long getAppliedSequence();
+
+  /** Returns the latest sequence number the primary has reported. */
+  long getPrimarySequence();
+
+  /** Returns how many entries the replica still has to apply. */
+  long getLagEntries();
+
+  /**
+   * Returns how long ago the oldest entry not applied yet was appended on the primary, or 0 once
+   * caught up. Measured by the primary's clock as of its last heartbeat, then by the replica's.
+   */
+  long getLagMillis();
+
+  /** Returns true while connected to the primary. */
+  boolean isConnected();
+}
@@ -0,0 +1,164 @@
+package com.google;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class used to serve the players of many users from one process, as the primary or as a
+ * read replica of another.
+ *
+ * <p>A primary records every command that can change flags or playlists in a
+ * {@link MutationLog}, in the order the commands were applied, and ships it to replicas with a
+ * {@link LogShipper}. A {@link Replica} applies the same commands in the same order, which over
+ * the same catalog reproduces the same state, and serves every other command locally, so reads
+ * scale with the number of replicas. Replicas refuse commands that would change that state.
+ *
+ * <p>Requests are a user id followed by a command line, for example
+ * {@code alice SHOW_PLAYLIST my_playlist}, or {@code REPLICATION_STATUS}.
+ */
+class ReplicatedNode {
+
+  /** The verbs whose commands change replicated state. */
+  static final Set<String> MUTATIONS = Set.of("FLAG_VIDEO", "ALLOW_VIDEO", "FLAG_BY_TAG",
+      "FLAG_BY_QUERY", "ALLOW_BULK", "CREATE_PLAYLIST", "ADD_TO_PLAYLIST", "REMOVE_FROM_PLAYLIST",
+      "CLEAR_PLAYLIST", "DELETE_PLAYLIST");
+
+  private final VideoLibrary library;
+  private final VideoFlags flags;
+  private final PlaybackHistory history;
+  private final MutationLog log;
+  private final Map<String, CommandConsole> sessions = new ConcurrentHashMap<>();
+  private volatile Replica replica;
+
+  /** Creates a primary recording mutations in the log, or a replica if the log is null. */
+  ReplicatedNode(VideoLibrary library, VideoFlags flags, PlaybackHistory history,
+      MutationLog log) {
+    this.library = library;
+    this.flags = flags;
+    this.history = history;
+    this.log = log;
+  }
+
+  boolean isPrimary() {
+    return log != null;
+  }
+
+  MutationLog log() {
+    return log;
+  }
+
+  /** Starts following the primary's log shipper. Only valid on a replica. */
+  synchronized Replica follow(InetSocketAddress primary) {
+    if (isPrimary() || replica != null) {
+      throw new IllegalStateException("Only a replica can follow a primary, and only one");
+    }
+    replica = new Replica(this, primary);
+    return replica;
+  }
+
+  /** Runs a command as the user and returns what it printed. */
+  String execute(String user, String commandLine) {
+    String verb = commandLine.strip().split("\\s+", 2)[0].toUpperCase();
+    CommandConsole session = session(user);
+    if (!MUTATIONS.contains(verb)) {
+      synchronized (session) {
+        return session.execute(commandLine);
+      }
+    }
+    if (!isPrimary()) {
+      throw new IllegalStateException("Replicas are read-only; send " + verb + " to the primary");
+    }
+    // Holding the log while applying keeps the log in the order mutations took effect.
+    synchronized (log) {
+      synchronized (session) {
+        String output = session.execute(commandLine);
+        log.append(user, commandLine);
+        return output;
+      }
+    }
+  }
+
+  /**
+   * Forgets every change applied from the primary's log, before replaying a new log from its
+   * start. Only valid on a replica.
+   */
+  void reset() {
+    sessions.clear();
+    flags.allowAll(flags.flagged());
+  }
+
+  /** Applies an entry shipped from the primary. */
+  void apply(MutationLog.Entry entry) {
+    CommandConsole session = session(entry.user);
+    synchronized (session) {
+      session.execute(entry.command);
+    }
+  }
+
+  private CommandConsole session(String user) {
+    return sessions.computeIfAbsent(user, u -> new CommandConsole(library, flags, history));
+  }
+
+  /** Returns a handler for requests of the form user id, then command line. */
+  CommandServer.Handler handler() {
+    return request -> {
+      if (request.strip().equalsIgnoreCase("REPLICATION_STATUS")) {
+        return status();
+      }
+      String[] parts = request.strip().split("\\s+", 2);
+      if (parts.length < 2) {
+        throw new IllegalArgumentException("Expected a user id followed by a command");
+      }
+      return execute(parts[0], parts[1]);
+    };
+  }
+
+  private String status() {
+    if (isPrimary()) {
+      return String.format("Primary at sequence %d%n", log.lastSequence());
+    }
+    Replica following = replica;
+    if (following == null) {
+      return String.format("Replica not following a primary%n");
+    }
+    return String.format("Replica at sequence %d of %d, %d entries and %d ms behind%n",
+        following.getAppliedSequence(), following.getPrimarySequence(),
+        following.getLagEntries(), following.getLagMillis());
+  }
+
+  /**
+   * Runs a node over the default library until its standard input is closed. Arguments: either
+   * {@code primary <command port> <log port>} or {@code replica <command port> <primary log
+   * port>}; ports may be 0 to pick any. Prints the ports once listening.
+   */
+  public static void main(String[] args) throws Exception {
+    boolean primary = args[0].equals("primary");
+    int commandPort = Integer.parseInt(args[1]);
+    int logPort = Integer.parseInt(args[2]);
+    ReplicatedNode node = new ReplicatedNode(VideoLibrary.shared(), new VideoFlags(),
+        PlaybackHistory.fromProperties(1024), primary ? new MutationLog() : null);
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    try (CommandServer server = new CommandServer(new InetSocketAddress(loopback, commandPort),
+        Runtime.getRuntime().availableProcessors(), node::handler)) {
+      Closeable replication;
+      if (primary) {
+        LogShipper shipper = new LogShipper(node.log(), new InetSocketAddress(loopback, logPort));
+        System.out.println("Shipping log on port " + shipper.port());
+        replication = shipper;
+      } else {
+        Replica replica = node.follow(new InetSocketAddress(loopback, logPort));
+        replica.registerMBean();
+        replication = replica;
+      }
+      System.out.println("Listening on port " + server.port());
+      while (System.in.read() >= 0) {
+        // Keep serving until the launcher goes away.
+      }
+      replication.close();
+    }
+  }
+}
@@ -1,15 +1,30 @@
 package com.google;
 
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 public class Run {
   public static void main(String[] args){
     System.out.println("Hello and welcome to YouTube, what would you like to do? "
         + "Enter HELP for list of available commands or EXIT to terminate.");
+    CommandMetrics.global().registerMBean();
+    long dumpSeconds = Long.getLong("metrics.dump.seconds", 0);
+    if (dumpSeconds > 0) {
+      CommandMetrics.global().startPeriodicDump(System.err, dumpSeconds, TimeUnit.SECONDS);
+    }
+    if (Boolean.getBoolean("startup.warmup")) {
+      StartupWarmup.warmUp();
+    }
     var videoPlayer = new VideoPlayer();
     var parser = new CommandParser(videoPlayer);
     var scanner = new Scanner(System.in);
+    if (Boolean.getBoolean("startup.report")) {
+      System.err.println(VideoLibrary.shared().loadSummary());
+      System.err.printf("Time to first prompt: %d ms since JVM start%n",
+          ManagementFactory.getRuntimeMXBean().getUptime());
+    }
     while (true) {
       System.out.print("YT> ");
       var input = scanner.nextLine();
@@ -0,0 +1,304 @@
+package com.google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * A class used to hold the {@link VideoPlayer} session of every user.
+ *
+ * <p>At most a fixed number of sessions are kept in memory. When that budget is exceeded, the
+ * least recently used session that nobody is using is written to a small file in the spill
+ * directory and dropped; asking for it again restores it transparently.
+ *
+ * <p>Sessions are used through a {@link Lease}, which holds the lock of that user only: users
+ * never wait for each other, and spilling or restoring a session does file I/O under the lock of
+ * its user alone. A leased session is never spilled, so nothing done through a lease is lost,
+ * and a session that cannot be written out stays in memory. Spill files left by an earlier
+ * manager of the same directory are restored like any other.
+ * Callers must not keep the player once the lease is closed, since a session that has been
+ * spilled and restored is a new object. Players print into the {@link CommandConsole} of their
+ * session, read through {@link Lease#takeOutput}.
+ */
+class SessionManager {
+
+  // Longer ids are named by their hash, keeping spill file names well under 255 bytes.
+  private static final int MAX_HEX_NAME_BYTES = 64;
+  private static final String SPILL_SUFFIX = ".session";
+
+  /** The session of one user while it is leased. */
+  final class Lease implements AutoCloseable {
+    private final Session session;
+    private boolean closed = false;
+
+    private Lease(Session session) {
+      this.session = session;
+    }
+
+    /** Returns the player of the user, valid until the lease is closed. */
+    VideoPlayer player() {
+      return session.console.player();
+    }
+
+    /** Returns everything the player printed since the last time, and forgets it. */
+    String takeOutput() {
+      return session.console.takeOutput();
+    }
+
+    /**
+     * Releases the session, which may then be spilled. Sessions that can't be spilled stay in
+     * memory and the failure is logged, so closing never throws.
+     */
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        session.lock.unlock();
+        unpin(session);
+        evictIfOverBudget();
+      }
+    }
+  }
+
+  /** A user known to the manager; its console is null while it is spilled. */
+  private static class Session {
+    final String userId;
+    final ReentrantLock lock = new ReentrantLock();
+    // Guarded by the lock of the session.
+    CommandConsole console;
+    // Guarded by the manager: how many threads hold or wait for the lock.
+    int pins = 0;
+
+    Session(String userId) {
+      this.userId = userId;
+    }
+  }
+
+  private final VideoLibrary library;
+  private final VideoFlags flags;
+  private final PlaybackHistory history;
+  private final Path spillDirectory;
+  private final int maxResidentSessions;
+  // In least recently used order; every session that is resident, leased or being spilled.
+  private final Map<String, Session> sessions;
+  private final LatencyHistogram restoreLatencyNanos = new LatencyHistogram();
+  private int residentSessions = 0;
+  private int spilledSessions = 0;
+  private long evictions = 0;
+  private long failedRestores = 0;
+
+  SessionManager(VideoLibrary library, VideoFlags flags, PlaybackHistory history,
+      Path spillDirectory, int maxResidentSessions) throws IOException {
+    this.library = library;
+    this.flags = flags;
+    this.history = history;
+    this.spillDirectory = Files.createDirectories(spillDirectory);
+    this.maxResidentSessions = maxResidentSessions;
+    this.sessions = new LinkedHashMap<>(16, 0.75f, true);
+    try (Stream<Path> files = Files.list(this.spillDirectory)) {
+      spilledSessions = (int) files
+          .filter(file -> file.getFileName().toString().endsWith(SPILL_SUFFIX))
+          .filter(Files::isRegularFile)
+          .count();
+    }
+  }
+
+  /**
+   * Leases the session of the user, restoring it from disk or creating it if needed, and waiting
+   * while another thread uses it. Throws UncheckedIOException if its spill file cannot be read;
+   * the file is then set aside, so the next lease starts a new session.
+   */
+  Lease acquire(String userId) {
+    Session session;
+    synchronized (this) {
+      session = sessions.computeIfAbsent(userId, Session::new);
+      session.pins++;
+    }
+    session.lock.lock();
+    try {
+      if (session.console == null) {
+        session.console = restore(userId);
+        synchronized (this) {
+          residentSessions++;
+        }
+      }
+    } catch (RuntimeException e) {
+      session.lock.unlock();
+      unpin(session);
+      throw e;
+    }
+    return new Lease(session);
+  }
+
+  /** Reads the spilled session of the user, or returns a new one. Needs the user's lock. */
+  private CommandConsole restore(String userId) {
+    CommandConsole console = new CommandConsole(library, flags, history);
+    Path file = spillFile(userId);
+    if (!Files.isRegularFile(file)) {
+      return console;
+    }
+    long start = System.nanoTime();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      console.player().readState(in);
+    } catch (IOException e) {
+      quarantine(file, userId);
+      throw new UncheckedIOException("Couldn't restore session of " + userId, e);
+    }
+    try {
+      Files.delete(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't remove spilled session of " + userId, e);
+    }
+    synchronized (this) {
+      spilledSessions--;
+    }
+    restoreLatencyNanos.record(System.nanoTime() - start);
+    return console;
+  }
+
+  /** Moves an unreadable spill file aside, keeping it for inspection. */
+  private void quarantine(Path file, String userId) {
+    try {
+      Files.move(file, file.resolveSibling(file.getFileName() + ".corrupt"),
+          StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't set aside spilled session of " + userId, e);
+    }
+    synchronized (this) {
+      spilledSessions--;
+      failedRestores++;
+    }
+  }
+
+  private synchronized void unpin(Session session) {
+    session.pins--;
+    if (session.pins == 0 && session.console == null) {
+      sessions.remove(session.userId);
+    }
+  }
+
+  /**
+   * Spills the least recently used sessions nobody is using until the budget is met. Victims are
+   * pinned under the manager's lock and written under their own, so no other user waits on the
+   * disk.
+   */
+  private void evictIfOverBudget() {
+    List<Session> victims = new ArrayList<>();
+    synchronized (this) {
+      int excess = residentSessions - maxResidentSessions;
+      for (Session session : sessions.values()) {
+        if (victims.size() >= excess) {
+          break;
+        }
+        if (session.pins == 0 && session.console != null) {
+          session.pins++;
+          victims.add(session);
+        }
+      }
+    }
+    for (Session victim : victims) {
+      victim.lock.lock();
+      try {
+        if (victim.console != null) {
+          spill(victim);
+        }
+      } catch (UncheckedIOException e) {
+        System.err.println(e.getMessage() + ", keeping it in memory: " + e.getCause());
+      } finally {
+        victim.lock.unlock();
+        unpin(victim);
+      }
+    }
+  }
+
+  /**
+   * Writes the session to its spill file and drops its console. Needs the user's lock. If the
+   * file can't be written, whatever was written is removed and the session is left as it was.
+   */
+  private void spill(Session session) {
+    Path file = spillFile(session.userId);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file)))) {
+      session.console.player().writeState(out);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw new UncheckedIOException("Couldn't spill session of " + session.userId, e);
+    }
+    session.console = null;
+    synchronized (this) {
+      residentSessions--;
+      spilledSessions++;
+      evictions++;
+    }
+  }
+
+  /**
+   * Names spill files by the hex encoding of the user id, so any id is a safe file name, or by
+   * the SHA-256 of the id when that would be too long.
+   */
+  private Path spillFile(String userId) {
+    byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+    String prefix = "";
+    if (id.length > MAX_HEX_NAME_BYTES) {
+      try {
+        id = MessageDigest.getInstance("SHA-256").digest(id);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is always available", e);
+      }
+      prefix = "sha256-";
+    }
+    StringBuilder name = new StringBuilder(prefix);
+    for (byte b : id) {
+      name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return spillDirectory.resolve(name.append(SPILL_SUFFIX).toString());
+  }
+
+  synchronized int residentSessions() {
+    return residentSessions;
+  }
+
+  synchronized int spilledSessions() {
+    return spilledSessions;
+  }
+
+  synchronized long evictions() {
+    return evictions;
+  }
+
+  synchronized long failedRestores() {
+    return failedRestores;
+  }
+
+  LatencyHistogram restoreLatencyNanos() {
+    return restoreLatencyNanos;
+  }
+
+  synchronized String report() {
+    return String.format("resident=%d spilled=%d evictions=%d restores=%d failed=%d "
+            + "restore p50=%.1fus p99=%.1fus%n",
+        residentSessions, spilledSessions, evictions, restoreLatencyNanos.count(),
+        failedRestores, restoreLatencyNanos.percentile(50) / 1e3,
+        restoreLatencyNanos.percentile(99) / 1e3);
+  }
+}
@@ -0,0 +1,103 @@
+package com.google;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A process serving one shard of a catalog to a {@link ShardedCatalog} over
+ * {@link WireProtocol}.
+ *
+ * <p>A shard loads only the videos whose id hashes to it, see {@link #owner}. It answers
+ * {@code GET <id>}, {@code SEARCH <term>} and {@code TAG <tag>} with one line per video in title
+ * order, and {@code STATS} with its number of videos and its heap use after a collection. A video
+ * line is its global index, title, id and comma-separated tags, separated by '|'. The global
+ * index is {@code localIndex * shardCount + shard}: unique across shards, and increasing with the
+ * local index, so each shard's title order is also the global one. Like every video index it is
+ * an int; a request whose answer would need a larger one fails rather than wrap around.
+ */
+final class ShardServer {
+
+  private ShardServer() {
+  }
+
+  /** Returns the shard owning the video. */
+  static int owner(String videoId, int shardCount) {
+    return Math.floorMod(videoId.hashCode(), shardCount);
+  }
+
+  /**
+   * Returns the global index of the video with the local index in the shard. Throws
+   * ArithmeticException if it does not fit in an int.
+   */
+  static int globalIndex(int localIndex, int shard, int shardCount) {
+    return Math.addExact(Math.multiplyExact(localIndex, shardCount), shard);
+  }
+
+  /** Returns a handler answering requests from the shard's library. */
+  static CommandServer.Handler handler(VideoLibrary library, int shard, int shardCount) {
+    return request -> {
+      int space = request.indexOf(' ');
+      String verb = space < 0 ? request : request.substring(0, space);
+      String argument = space < 0 ? "" : request.substring(space + 1);
+      switch (verb) {
+        case "GET": {
+          Video video = library.getVideo(argument);
+          return video == null ? "" : line(video, shard, shardCount);
+        }
+        case "SEARCH":
+          return lines(library.inTitleOrder(library.withTitleText(argument)), shard, shardCount);
+        case "TAG":
+          return lines(library.inTitleOrder(library.withTagText(argument)), shard, shardCount);
+        case "STATS": {
+          Runtime runtime = Runtime.getRuntime();
+          runtime.gc();
+          return library.size() + " " + (runtime.totalMemory() - runtime.freeMemory());
+        }
+        default:
+          throw new IllegalArgumentException("Unknown shard request: " + verb);
+      }
+    };
+  }
+
+  private static String lines(List<Video> videos, int shard, int shardCount) {
+    StringBuilder lines = new StringBuilder(videos.size() * 64);
+    for (Video video : videos) {
+      lines.append(line(video, shard, shardCount));
+    }
+    return lines.toString();
+  }
+
+  private static String line(Video video, int shard, int shardCount) {
+    return globalIndex(video.getIndex(), shard, shardCount) + "|" + video.getTitle() + "|"
+        + video.getVideoId() + "|" + String.join(",", video.getTags()) + "\n";
+  }
+
+  /**
+   * Serves a shard until its standard input is closed, which happens when the process that
+   * launched it exits. Arguments: shard, shard count, port (0 for any) and optionally the catalog
+   * file or directory, {@link VideoLibrary#defaultCatalog} by default. Prints the port once
+   * listening, and with {@code -Dstartup.report=true} how loading the catalog went.
+   */
+  public static void main(String[] args) throws Exception {
+    int shard = Integer.parseInt(args[0]);
+    int shardCount = Integer.parseInt(args[1]);
+    int port = Integer.parseInt(args[2]);
+    CatalogSource catalog = args.length > 3 ? CatalogSource.of(Path.of(args[3]))
+        : VideoLibrary.defaultCatalog();
+    VideoLibrary library = new VideoLibrary(catalog, id -> owner(id, shardCount) == shard);
+    if (Boolean.getBoolean("startup.report") && library.loadSummary() != null) {
+      System.err.printf("Shard %d of %d: %s%n", shard, shardCount, library.loadSummary());
+    }
+    try (CommandServer server = new CommandServer(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+        Runtime.getRuntime().availableProcessors(),
+        () -> handler(library, shard, shardCount))) {
+      System.out.println("Listening on port " + server.port());
+      while (System.in.read() >= 0) {
+        // Keep serving until the launcher goes away.
+      }
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package com.google;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A class used to read a catalog split by video id across {@link ShardServer} processes.
+ *
+ * <p>Lookups by id go to the owning shard only. Searches are sent to every shard before any
+ * answer is read, so the shards work in parallel, and their title-ordered answers are combined
+ * with a k-way merge. Videos carry the global index assigned by their shard, so they can be used
+ * with {@link VideoFlags} like videos of a local library.
+ *
+ * <p>Every shard's answer to a request is read before a failure is reported, and each answer
+ * must carry the id of its request. A connection that fails or answers out of turn is closed and
+ * opened again for the next request, so one failed request never leaves a stale answer behind.
+ */
+class ShardedCatalog implements Closeable {
+
+  private static final Comparator<Video> TITLE_ORDER =
+      Comparator.comparing(Video::getTitle).thenComparingInt(Video::getIndex);
+
+  /** The size of one shard. */
+  static class ShardStats {
+    final int videos;
+    final long usedHeapBytes;
+
+    ShardStats(int videos, long usedHeapBytes) {
+      this.videos = videos;
+      this.usedHeapBytes = usedHeapBytes;
+    }
+  }
+
+  private final List<InetSocketAddress> addresses;
+  // In shard order; null where a connection has been dropped and not yet opened again.
+  private final List<CommandClient> shards = new ArrayList<>();
+  private final List<Process> processes;
+  private int nextId = 0;
+
+  /** Connects to running shards, given in shard order. */
+  ShardedCatalog(List<InetSocketAddress> addresses) throws IOException {
+    this(addresses, List.of());
+  }
+
+  private ShardedCatalog(List<InetSocketAddress> addresses, List<Process> processes)
+      throws IOException {
+    this.addresses = List.copyOf(addresses);
+    this.processes = processes;
+    try {
+      for (InetSocketAddress address : addresses) {
+        shards.add(new CommandClient(address.getHostString(), address.getPort()));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Starts one shard process per shard over the catalog file, running the classes this one was
+   * loaded from, and connects to them. Closing the catalog stops the processes.
+   */
+  static ShardedCatalog launch(int shardCount, File catalog, String... jvmOptions)
+      throws IOException {
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    String classPath;
+    try {
+      classPath = Path.of(ShardServer.class.getProtectionDomain().getCodeSource().getLocation()
+          .toURI()).toString();
+    } catch (URISyntaxException e) {
+      throw new IOException("Couldn't locate the shard classes", e);
+    }
+    List<Process> processes = new ArrayList<>();
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    try {
+      for (int shard = 0; shard < shardCount; shard++) {
+        List<String> command = new ArrayList<>(List.of(java));
+        command.addAll(Arrays.asList(jvmOptions));
+        command.addAll(List.of("-cp", classPath,
+            ShardServer.class.getName(), String.valueOf(shard), String.valueOf(shardCount), "0",
+            catalog.getPath()));
+        processes.add(new ProcessBuilder(command)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start());
+      }
+      for (Process process : processes) {
+        BufferedReader output = new BufferedReader(new InputStreamReader(
+            process.getInputStream(), StandardCharsets.UTF_8));
+        String line = output.readLine();
+        if (line == null || !line.startsWith("Listening on port ")) {
+          throw new IOException("Shard failed to start: " + line);
+        }
+        int port = Integer.parseInt(line.substring("Listening on port ".length()));
+        addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        forward(output, addresses.size() - 1);
+      }
+    } catch (IOException e) {
+      processes.forEach(Process::destroy);
+      throw e;
+    }
+    return new ShardedCatalog(addresses, processes);
+  }
+
+  /**
+   * Copies the rest of a shard's standard output to standard error, so a shard printing more
+   * never blocks on a full pipe.
+   */
+  private static void forward(BufferedReader output, int shard) {
+    Thread forwarder = new Thread(() -> {
+      try {
+        String line;
+        while ((line = output.readLine()) != null) {
+          System.err.println(line);
+        }
+      } catch (IOException ignored) {
+        // The shard has gone away.
+      }
+    }, "shard-output-" + shard);
+    forwarder.setDaemon(true);
+    forwarder.start();
+  }
+
+  int shardCount() {
+    return shards.size();
+  }
+
+  /** Get a video by id from the shard owning it. Returns null if the video is not found. */
+  synchronized Video getVideo(String videoId) throws IOException {
+    int shard = ShardServer.owner(videoId, shards.size());
+    List<Video> found = parse(exchange(new int[] {shard}, "GET " + videoId).get(0));
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /** Returns the unflagged videos whose title contains the term, sorted by title. */
+  List<Video> searchVideos(String term, VideoFlags flags) throws IOException {
+    return unflagged(scatter("SEARCH " + term), flags);
+  }
+
+  /** Returns the unflagged videos with a tag containing the given one, sorted by title. */
+  List<Video> searchVideosWithTag(String tag, VideoFlags flags) throws IOException {
+    return unflagged(scatter("TAG " + tag), flags);
+  }
+
+  /** Returns the size of every shard, in shard order. */
+  synchronized List<ShardStats> stats() throws IOException {
+    List<ShardStats> stats = new ArrayList<>();
+    for (String answer : exchange(allShards(), "STATS")) {
+      String[] fields = answer.split(" ");
+      stats.add(new ShardStats(Integer.parseInt(fields[0]), Long.parseLong(fields[1])));
+    }
+    return stats;
+  }
+
+  /** Sends the request to every shard and merges their title-ordered answers. */
+  private synchronized List<Video> scatter(String request) throws IOException {
+    List<List<Video>> answers = new ArrayList<>(shards.size());
+    int total = 0;
+    for (String output : exchange(allShards(), request)) {
+      List<Video> answer = parse(output);
+      answers.add(answer);
+      total += answer.size();
+    }
+    // Each heap entry is a shard and the position of its next video.
+    PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, answers.size()),
+        (a, b) -> TITLE_ORDER.compare(answers.get(a[0]).get(a[1]), answers.get(b[0]).get(b[1])));
+    for (int shard = 0; shard < answers.size(); shard++) {
+      if (!answers.get(shard).isEmpty()) {
+        heads.add(new int[] {shard, 0});
+      }
+    }
+    List<Video> merged = new ArrayList<>(total);
+    while (!heads.isEmpty()) {
+      int[] head = heads.poll();
+      List<Video> answer = answers.get(head[0]);
+      merged.add(answer.get(head[1]));
+      if (++head[1] < answer.size()) {
+        heads.add(head);
+      }
+    }
+    return merged;
+  }
+
+  private static List<Video> unflagged(List<Video> videos, VideoFlags flags) {
+    videos.removeIf(flags::isFlagged);
+    return videos;
+  }
+
+  private int[] allShards() {
+    int[] all = new int[shards.size()];
+    Arrays.setAll(all, shard -> shard);
+    return all;
+  }
+
+  /**
+   * Sends the request to each of the shards before reading any answer, then reads all of them.
+   * Returns their outputs in the order of the shards given, or throws the first failure once
+   * every answer has been read. Needs the catalog's lock.
+   */
+  private List<String> exchange(int[] targets, String request) throws IOException {
+    int[] ids = new int[targets.length];
+    boolean[] sent = new boolean[targets.length];
+    IOException failure = null;
+    for (int i = 0; i < targets.length; i++) {
+      ids[i] = nextId++;
+      try {
+        CommandClient client = client(targets[i]);
+        client.send(ids[i], request);
+        client.flush();
+        sent[i] = true;
+      } catch (IOException e) {
+        drop(targets[i]);
+        failure = failure == null ? e : failure;
+      }
+    }
+    List<String> outputs = new ArrayList<>(targets.length);
+    for (int i = 0; i < targets.length; i++) {
+      outputs.add(null);
+      if (!sent[i]) {
+        continue;
+      }
+      int shard = targets[i];
+      CommandClient.Response response;
+      try {
+        response = shards.get(shard).receive();
+      } catch (IOException e) {
+        drop(shard);
+        failure = failure == null ? e : failure;
+        continue;
+      }
+      if (response.id != ids[i]) {
+        drop(shard);
+        failure = failure != null ? failure : new IOException("Shard " + shard
+            + " answered request " + response.id + " instead of " + ids[i]);
+      } else if (response.status != WireProtocol.OK) {
+        failure = failure != null ? failure
+            : new IOException("Shard " + shard + " failed: " + response.output);
+      } else {
+        outputs.set(i, response.output);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return outputs;
+  }
+
+  /** Returns the connection to the shard, opening it again if it was dropped. */
+  private CommandClient client(int shard) throws IOException {
+    CommandClient client = shards.get(shard);
+    if (client == null) {
+      InetSocketAddress address = addresses.get(shard);
+      client = new CommandClient(address.getHostString(), address.getPort());
+      shards.set(shard, client);
+    }
+    return client;
+  }
+
+  /** Closes the connection to the shard, whose stream can no longer be trusted. */
+  private void drop(int shard) {
+    CommandClient client = shards.set(shard, null);
+    if (client != null) {
+      try {
+        client.close();
+      } catch (IOException ignored) {
+        // A new connection is opened for the next request either way.
+      }
+    }
+  }
+
+  private static List<Video> parse(String lines) {
+    List<Video> videos = new ArrayList<>();
+    int start = 0;
+    while (start < lines.length()) {
+      int end = lines.indexOf('\n', start);
+      String[] fields = lines.substring(start, end).split("\\|", -1);
+      List<String> tags = fields[3].isEmpty() ? List.of() : Arrays.asList(fields[3].split(","));
+      videos.add(new Video(Integer.parseInt(fields[0]), fields[1], fields[2], tags));
+      start = end + 1;
+    }
+    return videos;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (CommandClient client : shards) {
+      if (client != null) {
+        client.close();
+      }
+    }
+    for (Process process : processes) {
+      process.destroy();
+    }
+  }
+}
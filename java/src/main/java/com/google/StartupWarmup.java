@@ -0,0 +1,73 @@
+package com.google;
+
+import java.util.List;
+
+/**
+ * A class used to take the first-command costs of a fresh {@link Run} process before its first
+ * prompt rather than after it.
+ *
+ * <p>{@link #warmUp} loads the shared library, builds its lazy indexes and runs
+ * {@link #TRAINING_COMMANDS} on a scratch player, so the classes behind every kind of command are
+ * loaded and initialized. Run does this when started with {@code -Dstartup.warmup=true}.
+ *
+ * <p>Running this class is the training run of the {@code cds} Maven profile: the classes it
+ * loads are dumped into an application class-data sharing archive, which later launches map
+ * instead of loading and verifying those classes again.
+ */
+final class StartupWarmup {
+
+  /** Commands covering the parser, playback, playlists, search and every index. */
+  static final List<String> TRAINING_COMMANDS = List.of(
+      "HELP",
+      "NUMBER_OF_VIDEOS",
+      "SHOW_ALL_VIDEOS",
+      "PLAY amazing_cats_video_id",
+      "PAUSE",
+      "CONTINUE",
+      "SHOW_PLAYING",
+      "STOP",
+      "PLAY_RANDOM",
+      "SEARCH_VIDEOS cat",
+      "SEARCH_VIDEOS_WITH_TAG #dog",
+      "QUERY_VIDEOS tag:#cat AND NOT title:video",
+      "RELATED amazing_cats_video_id",
+      "SUGGEST ca",
+      "CREATE_PLAYLIST warm_up",
+      "ADD_TO_PLAYLIST warm_up amazing_cats_video_id",
+      "ADD_TO_PLAYLIST warm_up funny_dogs_video_id",
+      "SHOW_PLAYLIST warm_up",
+      "SHOW_ALL_PLAYLISTS",
+      "PLAY_PLAYLIST warm_up",
+      "NEXT",
+      "PREV",
+      "FLAG_VIDEO funny_dogs_video_id",
+      "ALLOW_VIDEO funny_dogs_video_id",
+      "MOST_PLAYED",
+      "RECENTLY_PLAYED",
+      "DELETE_PLAYLIST warm_up",
+      "NOT_A_COMMAND");
+
+  private StartupWarmup() {
+  }
+
+  /**
+   * Loads the shared library and its indexes, then runs the training commands on a console with
+   * its own flags, history and metrics, discarding their output.
+   */
+  static void warmUp() {
+    VideoLibrary library = VideoLibrary.shared();
+    library.relatedVideos();
+    library.suggestions();
+    CommandConsole console = new CommandConsole(
+        library, new VideoFlags(), new PlaybackHistory(16), new CommandMetrics());
+    for (String command : TRAINING_COMMANDS) {
+      console.execute(command);
+    }
+  }
+
+  /** Runs the start of a {@link Run} session and the training commands, then exits. */
+  public static void main(String[] args) {
+    CommandMetrics.global().registerMBean();
+    warmUp();
+  }
+}
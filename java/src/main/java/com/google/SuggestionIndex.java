@@ -0,0 +1,512 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A class used to complete partial titles and tags without scanning the library.
+ *
+ * <p>Every title is reachable from the start of each of its words, and every tag with or without
+ * its leading '#', keyed by the normalized form the library searches by. The keys are held in a
+ * radix trie whose edges point into the normalized titles and tags rather than copying them, so
+ * it has at most two nodes per key, with the best {@link #TOP_K} completions of every node stored
+ * alongside it: a lookup walks the normalized prefix and reads its answer without visiting the
+ * subtree. Tags rank by the number of videos carrying them, ahead of single titles; ties rank
+ * alphabetically.
+ *
+ * <p>The trie is built from the library once and then follows its changes, re-ranking only the
+ * nodes on the paths of the keys of each changed video. When flags hide too many of the stored
+ * completions, the whole subtree of the prefix is ranked instead.
+ */
+class SuggestionIndex implements VideoLibrary.Listener {
+
+  static final int TOP_K = 16;
+
+  private static final Comparator<Term> RANK = Comparator.<Term>comparingInt(t -> -t.weight)
+      .thenComparing(t -> t.text, String.CASE_INSENSITIVE_ORDER)
+      .thenComparingLong(t -> t.id);
+  private static final char[] NO_LABELS = new char[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+  private static final Term[] NO_TERMS = new Term[0];
+
+  /** A completion: the title of a video, or a tag weighted by the number of videos carrying it. */
+  private static final class Term {
+    final String text;
+    // Null for tags.
+    final Video video;
+    // Breaks ties between equal texts, oldest first.
+    final long id;
+    int weight;
+
+    Term(String text, Video video, long id, int weight) {
+      this.text = text;
+      this.video = video;
+      this.id = id;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * A node of the trie. The label of the edge leading to it is characters start to end of
+   * source, which are preceded in source by the labels of every edge above it.
+   */
+  private static final class Node {
+    final String source;
+    int start;
+    final int end;
+    // The first character of the label of each child, ascending, and the children themselves.
+    char[] labels = NO_LABELS;
+    Node[] children = NO_CHILDREN;
+    // The completions keyed exactly here, or null if there are none.
+    List<Term> terms;
+    Term[] top = NO_TERMS;
+
+    Node(String source, int start, int end) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+    }
+
+    int length() {
+      return end - start;
+    }
+
+    /** Returns the position of the child whose label starts with the character, or -1. */
+    int find(char label) {
+      int position = Arrays.binarySearch(labels, label);
+      return position >= 0 ? position : -1;
+    }
+
+    void addChild(Node child) {
+      char label = child.source.charAt(child.start);
+      int position = -Arrays.binarySearch(labels, label) - 1;
+      labels = Arrays.copyOf(labels, labels.length + 1);
+      children = Arrays.copyOf(children, children.length + 1);
+      System.arraycopy(labels, position, labels, position + 1, labels.length - position - 1);
+      System.arraycopy(children, position, children, position + 1, children.length - position - 1);
+      labels[position] = label;
+      children[position] = child;
+    }
+
+    void removeChild(int position) {
+      char[] newLabels = new char[labels.length - 1];
+      Node[] newChildren = new Node[children.length - 1];
+      System.arraycopy(labels, 0, newLabels, 0, position);
+      System.arraycopy(labels, position + 1, newLabels, position, newLabels.length - position);
+      System.arraycopy(children, 0, newChildren, 0, position);
+      System.arraycopy(children, position + 1, newChildren, position,
+          newChildren.length - position);
+      labels = newLabels;
+      children = newChildren;
+    }
+  }
+
+  /** What is indexed for one video, to take it out again when the video changes. */
+  private static final class Indexed {
+    final Term title;
+    final String normalizedTitle;
+    final List<String> tags;
+
+    Indexed(Term title, String normalizedTitle, List<String> tags) {
+      this.title = title;
+      this.normalizedTitle = normalizedTitle;
+      this.tags = tags;
+    }
+  }
+
+  private final VideoLibrary library;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Node root = new Node("", 0, 0);
+  // By video index.
+  private final Map<Integer, Indexed> indexed = new HashMap<>();
+  // By normalized tag.
+  private final Map<String, Term> tagTerms = new HashMap<>();
+  private long nextTermId = 0;
+
+  SuggestionIndex(VideoLibrary library) {
+    this.library = library;
+    lock.writeLock().lock();
+    try {
+      // Changes made from here on wait for the build, then are applied over it.
+      library.addListener(this);
+      for (VideoLibrary.NormalizedVideo video : library.normalizedVideos()) {
+        add(video, false);
+      }
+      rankSubtree(root);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void videosChanged(List<Video> changed) {
+    lock.writeLock().lock();
+    try {
+      Set<Integer> seen = new HashSet<>();
+      for (Video video : changed) {
+        int index = video.getIndex();
+        if (!seen.add(index)) {
+          continue;
+        }
+        VideoLibrary.NormalizedVideo current = library.normalized(index);
+        Indexed old = indexed.get(index);
+        if (old != null && current != null && old.title.video == current.video) {
+          continue;
+        }
+        if (old != null) {
+          remove(index, old);
+        }
+        if (current != null) {
+          add(current, true);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Indexes the title and tags of the video. Unless ranking, the lists of terms are left unsorted
+   * and the best completions stale, for {@link #rankSubtree} to compute once at the end.
+   */
+  private void add(VideoLibrary.NormalizedVideo video, boolean rank) {
+    Term title = new Term(video.video.getTitle(), video.video, nextTermId++, 1);
+    String normalizedTitle = video.title;
+    for (int i = 0; i < normalizedTitle.length(); i++) {
+      if (isWordStart(normalizedTitle, i)) {
+        insert(normalizedTitle, i, title, rank);
+      }
+    }
+    for (int t = 0; t < video.tags.size(); t++) {
+      String key = video.tags.get(t);
+      Term tag = tagTerms.get(key);
+      if (tag == null) {
+        tag = new Term(video.video.getTags().get(t), null, nextTermId++, 1);
+        tagTerms.put(key, tag);
+        insert(key, 0, tag, rank);
+        if (key.startsWith("#")) {
+          insert(key, 1, tag, rank);
+        }
+      } else if (rank) {
+        reweigh(tag, key, 1);
+      } else {
+        tag.weight++;
+      }
+    }
+    indexed.put(video.video.getIndex(), new Indexed(title, normalizedTitle, video.tags));
+  }
+
+  private void remove(int index, Indexed old) {
+    indexed.remove(index);
+    for (int i = 0; i < old.normalizedTitle.length(); i++) {
+      if (isWordStart(old.normalizedTitle, i)) {
+        delete(old.normalizedTitle, i, old.title);
+      }
+    }
+    for (String key : old.tags) {
+      Term tag = tagTerms.get(key);
+      if (tag.weight > 1) {
+        reweigh(tag, key, -1);
+      } else {
+        tagTerms.remove(key);
+        delete(key, 0, tag);
+        if (key.startsWith("#")) {
+          delete(key, 1, tag);
+        }
+      }
+    }
+  }
+
+  private static boolean isWordStart(String text, int i) {
+    return !Character.isWhitespace(text.charAt(i))
+        && (i == 0 || Character.isWhitespace(text.charAt(i - 1)));
+  }
+
+  /** Changes the weight of the tag, moving it wherever it now ranks. */
+  private void reweigh(Term tag, String key, int delta) {
+    List<Node> withHash = path(key, 0);
+    List<Node> withoutHash = key.startsWith("#") ? path(key, 1) : null;
+    last(withHash).terms.remove(tag);
+    if (withoutHash != null) {
+      last(withoutHash).terms.remove(tag);
+    }
+    tag.weight += delta;
+    for (List<Node> path : Arrays.asList(withHash, withoutHash)) {
+      if (path != null) {
+        addTerm(last(path), tag, true);
+        if (delta > 0) {
+          promote(path, tag);
+        } else {
+          rerank(path);
+        }
+      }
+    }
+  }
+
+  /** Adds the term under characters from onwards of the key, splitting edges as needed. */
+  private void insert(String key, int from, Term term, boolean rank) {
+    List<Node> path = new ArrayList<>();
+    Node node = root;
+    int i = from;
+    path.add(node);
+    while (i < key.length()) {
+      int position = node.find(key.charAt(i));
+      if (position < 0) {
+        Node leaf = new Node(key, i, key.length());
+        node.addChild(leaf);
+        node = leaf;
+        path.add(node);
+        break;
+      }
+      Node child = node.children[position];
+      int matched = 1;
+      while (matched < child.length() && i + matched < key.length()
+          && child.source.charAt(child.start + matched) == key.charAt(i + matched)) {
+        matched++;
+      }
+      if (matched < child.length()) {
+        Node middle = new Node(child.source, child.start, child.start + matched);
+        child.start += matched;
+        middle.addChild(child);
+        middle.top = child.top;
+        node.children[position] = middle;
+        child = middle;
+      }
+      node = child;
+      path.add(node);
+      i += matched;
+    }
+    addTerm(node, term, rank);
+    if (rank) {
+      promote(path, term);
+    }
+  }
+
+  /** Removes the term from under characters from onwards of the key, pruning empty nodes. */
+  private void delete(String key, int from, Term term) {
+    List<Node> path = path(key, from);
+    Node node = last(path);
+    node.terms.remove(term);
+    if (node.terms.isEmpty()) {
+      node.terms = null;
+    }
+    for (int p = path.size() - 1; p > 0; p--) {
+      node = path.get(p);
+      Node parent = path.get(p - 1);
+      if (node.terms == null && node.children.length <= 1) {
+        int position = parent.find(node.source.charAt(node.start));
+        if (node.children.length == 0) {
+          parent.removeChild(position);
+        } else {
+          // The labels above the only child precede its own in its source, so it absorbs this one.
+          Node child = node.children[0];
+          child.start -= node.length();
+          parent.children[position] = child;
+        }
+      } else {
+        rankNode(node);
+      }
+    }
+    rankNode(root);
+  }
+
+  /** Returns the nodes from the root down to the one holding the key, which must be present. */
+  private List<Node> path(String key, int from) {
+    List<Node> path = new ArrayList<>();
+    Node node = root;
+    path.add(node);
+    for (int i = from; i < key.length(); i += node.length()) {
+      node = node.children[node.find(key.charAt(i))];
+      path.add(node);
+    }
+    return path;
+  }
+
+  private static Node last(List<Node> path) {
+    return path.get(path.size() - 1);
+  }
+
+  private static void addTerm(Node node, Term term, boolean sorted) {
+    if (node.terms == null) {
+      node.terms = new ArrayList<>(1);
+    }
+    if (sorted) {
+      node.terms.add(-Collections.binarySearch(node.terms, term, RANK) - 1, term);
+    } else {
+      node.terms.add(term);
+    }
+  }
+
+  /** Recomputes the best completions of the nodes on the path, deepest first. */
+  private static void rerank(List<Node> path) {
+    for (int p = path.size() - 1; p >= 0; p--) {
+      rankNode(path.get(p));
+    }
+  }
+
+  /** Sorts the terms of every node below this one and computes its best completions. */
+  private static void rankSubtree(Node root) {
+    List<Node> nodes = new ArrayList<>();
+    nodes.add(root);
+    for (int i = 0; i < nodes.size(); i++) {
+      Collections.addAll(nodes, nodes.get(i).children);
+    }
+    // Children come after their parents, so walking backwards ranks every child first.
+    for (int i = nodes.size() - 1; i >= 0; i--) {
+      Node node = nodes.get(i);
+      if (node.terms != null) {
+        node.terms.sort(RANK);
+      }
+      rankNode(node);
+    }
+  }
+
+  /**
+   * Moves the term into the best completions of the nodes on the path wherever it ranks, which
+   * is all that adding a term or raising its weight can change.
+   */
+  private static void promote(List<Node> path, Term term) {
+    for (Node node : path) {
+      List<Term> top = new ArrayList<>(TOP_K + 1);
+      for (Term other : node.top) {
+        if (other != term) {
+          top.add(other);
+        }
+      }
+      int position = -Collections.binarySearch(top, term, RANK) - 1;
+      if (position < TOP_K) {
+        top.add(position, term);
+        node.top = top.subList(0, Math.min(TOP_K, top.size())).toArray(NO_TERMS);
+      }
+    }
+  }
+
+  /**
+   * Computes the best completions of the node from its terms and those of its children. Every
+   * list is sorted, so they are merged from their heads.
+   */
+  private static void rankNode(Node node) {
+    int[] heads = new int[node.children.length + 1];
+    Term[] best = new Term[TOP_K];
+    int size = 0;
+    while (size < TOP_K) {
+      Term next = null;
+      int from = -1;
+      for (int list = 0; list < heads.length; list++) {
+        Term head = head(node, list, heads[list]);
+        if (head != null && (next == null || RANK.compare(head, next) < 0)) {
+          next = head;
+          from = list;
+        }
+      }
+      if (next == null) {
+        break;
+      }
+      heads[from]++;
+      // A term reachable by two keys is in two lists, and comes out of both in a row.
+      if (size == 0 || best[size - 1] != next) {
+        best[size++] = next;
+      }
+    }
+    node.top = Arrays.copyOf(best, size);
+  }
+
+  /** Returns the term at the position of the node's own terms or of a child's, or null. */
+  private static Term head(Node node, int list, int position) {
+    if (list == 0) {
+      return node.terms != null && position < node.terms.size() ? node.terms.get(position) : null;
+    }
+    Term[] top = node.children[list - 1].top;
+    return position < top.length ? top[position] : null;
+  }
+
+  /** Returns up to limit of the distinct candidates, best first. */
+  private static Term[] best(List<Term> candidates, int limit) {
+    candidates.sort(RANK);
+    List<Term> best = new ArrayList<>(Math.min(limit, candidates.size()));
+    for (Term term : candidates) {
+      if (best.size() == limit) {
+        break;
+      }
+      if (best.isEmpty() || best.get(best.size() - 1) != term) {
+        best.add(term);
+      }
+    }
+    return best.toArray(NO_TERMS);
+  }
+
+  /**
+   * Returns up to count completions of the prefix, best first, leaving out the titles of
+   * flagged videos.
+   */
+  List<String> suggest(String prefix, VideoFlags flags, int count) {
+    String key = library.normalizer().normalize(prefix);
+    lock.readLock().lock();
+    try {
+      Node node = find(key);
+      if (node == null) {
+        return List.of();
+      }
+      List<String> result = unflagged(node.top, flags, count);
+      if (result.size() < count && node.top.length == TOP_K) {
+        result = unflagged(best(subtreeTerms(node), Integer.MAX_VALUE), flags, count);
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the node below which every key starts with the prefix, or null if none does. */
+  private Node find(String key) {
+    Node node = root;
+    for (int i = 0; i < key.length(); i += node.length()) {
+      int position = node.find(key.charAt(i));
+      if (position < 0) {
+        return null;
+      }
+      node = node.children[position];
+      int length = Math.min(node.length(), key.length() - i);
+      if (!node.source.regionMatches(node.start, key, i, length)) {
+        return null;
+      }
+    }
+    return node;
+  }
+
+  private static List<Term> subtreeTerms(Node node) {
+    List<Term> terms = new ArrayList<>();
+    List<Node> nodes = new ArrayList<>();
+    nodes.add(node);
+    for (int i = 0; i < nodes.size(); i++) {
+      Node next = nodes.get(i);
+      if (next.terms != null) {
+        terms.addAll(next.terms);
+      }
+      Collections.addAll(nodes, next.children);
+    }
+    return terms;
+  }
+
+  private static List<String> unflagged(Term[] ranked, VideoFlags flags, int count) {
+    List<String> result = new ArrayList<>(Math.min(count, ranked.length));
+    for (Term term : ranked) {
+      if (term.video == null || !flags.isFlagged(term.video)) {
+        result.add(term.text);
+        if (result.size() == count) {
+          break;
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,80 @@
+package com.google;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A class used to bring titles, tags and search terms to one comparable form.
+ *
+ * <p>Text is put in NFKC form, so compatibility characters such as full-width letters match
+ * their plain forms, then case folded independently of the default locale: upper-casing before
+ * lower-casing folds characters like the dotless i and the sharp s the way Unicode case folding
+ * does. Accents are then stripped unless disabled with {@code -Dsearch.stripAccents=false}.
+ * Normalizing is comparatively slow, so the library normalizes each video once, when it is
+ * added, and queries only normalize their own terms.
+ */
+final class TextNormalizer {
+
+  private final boolean stripAccents;
+
+  TextNormalizer(boolean stripAccents) {
+    this.stripAccents = stripAccents;
+  }
+
+  /** Returns a normalizer configured by the system properties as they are now. */
+  static TextNormalizer fromProperties() {
+    return new TextNormalizer(
+        Boolean.parseBoolean(System.getProperty("search.stripAccents", "true")));
+  }
+
+  boolean stripsAccents() {
+    return stripAccents;
+  }
+
+  /** Returns the normalized form of the text. */
+  String normalize(String text) {
+    String folded = Normalizer.normalize(text, Normalizer.Form.NFKC)
+        .toUpperCase(Locale.ROOT)
+        .toLowerCase(Locale.ROOT);
+    if (!stripAccents) {
+      return Normalizer.normalize(folded, Normalizer.Form.NFC);
+    }
+    StringBuilder stripped = new StringBuilder(folded.length());
+    String decomposed = Normalizer.normalize(folded, Normalizer.Form.NFD);
+    for (int i = 0; i < decomposed.length(); i++) {
+      char c = decomposed.charAt(i);
+      if (Character.getType(c) != Character.NON_SPACING_MARK) {
+        stripped.append(c);
+      }
+    }
+    return Normalizer.normalize(stripped, Normalizer.Form.NFC);
+  }
+
+  /**
+   * Splits normalized text into its words: runs of letters, digits and the marks attached to
+   * them.
+   */
+  static List<String> words(String normalized) {
+    List<String> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i < normalized.length(); ) {
+      int codePoint = normalized.codePointAt(i);
+      boolean partOfWord = Character.isLetterOrDigit(codePoint)
+          || Character.getType(codePoint) == Character.NON_SPACING_MARK
+          || Character.getType(codePoint) == Character.COMBINING_SPACING_MARK;
+      if (partOfWord && start < 0) {
+        start = i;
+      } else if (!partOfWord && start >= 0) {
+        words.add(normalized.substring(start, i));
+        start = -1;
+      }
+      i += Character.charCount(codePoint);
+    }
+    if (start >= 0) {
+      words.add(normalized.substring(start));
+    }
+    return words;
+  }
+}
@@ -0,0 +1,44 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class used to give every distinct normalized token a small integer id, so indexes can be
+ * keyed by id and compare tokens without comparing strings. Ids are assigned in order from 0 and
+ * never reused. Not thread-safe; the library only changes it under its write lock.
+ */
+class TokenDictionary {
+
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> tokens = new ArrayList<>();
+
+  /** Returns the id of the token, assigning the next one if it is new. */
+  int intern(String token) {
+    Integer id = ids.get(token);
+    if (id == null) {
+      id = tokens.size();
+      ids.put(token, id);
+      tokens.add(token);
+    }
+    return id;
+  }
+
+  /** Returns the id of the token, or -1 if it was never interned. */
+  int find(String token) {
+    Integer id = ids.get(token);
+    return id == null ? -1 : id;
+  }
+
+  /** Returns the token with the id. */
+  String token(int id) {
+    return tokens.get(id);
+  }
+
+  /** Returns the number of ids assigned so far. */
+  int size() {
+    return tokens.size();
+  }
+}
@@ -6,16 +6,23 @@ import java.util.List;
 /** A class used to represent a video. */
 class Video {
 
+  private final int index;
   private final String title;
   private final String videoId;
   private final List<String> tags;
 
-  Video(String title, String videoId, List<String> tags) {
+  Video(int index, String title, String videoId, List<String> tags) {
+    this.index = index;
     this.title = title;
     this.videoId = videoId;
     this.tags = Collections.unmodifiableList(tags);
   }
 
+  /** Returns the dense integer id assigned to the video by its library. */
+  int getIndex() {
+    return index;
+  }
+
   /** Returns the title of the video. */
   String getTitle() {
     return title;
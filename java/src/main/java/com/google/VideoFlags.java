@@ -0,0 +1,100 @@
+package com.google;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class used to hold the flagged status of videos. The status itself is a bitmap keyed by
+ * video index; the reasons are only looked up when a flagged video is displayed. The flags can be
+ * shared by many players, so every method is synchronized.
+ */
+class VideoFlags {
+
+  private final BitSet flagged = new BitSet();
+  private final Map<Integer, String> reasons = new HashMap<>();
+  private long version = 0;
+
+  /** Returns a number that changes whenever a video is flagged or allowed. */
+  synchronized long version() {
+    return version;
+  }
+
+  synchronized boolean isFlagged(Video video) {
+    return flagged.get(video.getIndex());
+  }
+
+  /** Returns the flag reason of the video, or null if it is not flagged. */
+  synchronized String getReason(Video video) {
+    return reasons.get(video.getIndex());
+  }
+
+  /** Flags the video. Returns false if it was already flagged. */
+  synchronized boolean flag(Video video, String reason) {
+    int index = video.getIndex();
+    if (flagged.get(index)) {
+      return false;
+    }
+    flagged.set(index);
+    reasons.put(index, reason);
+    version++;
+    return true;
+  }
+
+  /** Removes the flag from the video. Returns false if it was not flagged. */
+  synchronized boolean allow(Video video) {
+    int index = video.getIndex();
+    if (!flagged.get(index)) {
+      return false;
+    }
+    flagged.clear(index);
+    reasons.remove(index);
+    version++;
+    return true;
+  }
+
+  /**
+   * Flags every video in the bitmap that is not flagged yet, as one change. Returns the bitmap
+   * of the videos that were newly flagged.
+   */
+  synchronized BitSet flagAll(BitSet videos, String reason) {
+    BitSet newlyFlagged = (BitSet) videos.clone();
+    newlyFlagged.andNot(flagged);
+    if (!newlyFlagged.isEmpty()) {
+      flagged.or(newlyFlagged);
+      for (int i = newlyFlagged.nextSetBit(0); i >= 0; i = newlyFlagged.nextSetBit(i + 1)) {
+        reasons.put(i, reason);
+      }
+      version++;
+    }
+    return newlyFlagged;
+  }
+
+  /**
+   * Removes the flag from every flagged video in the bitmap, as one change. Returns the bitmap
+   * of the videos that were allowed.
+   */
+  synchronized BitSet allowAll(BitSet videos) {
+    BitSet allowed = (BitSet) videos.clone();
+    allowed.and(flagged);
+    if (!allowed.isEmpty()) {
+      flagged.andNot(allowed);
+      for (int i = allowed.nextSetBit(0); i >= 0; i = allowed.nextSetBit(i + 1)) {
+        reasons.remove(i);
+      }
+      version++;
+    }
+    return allowed;
+  }
+
+  /** Returns a copy of the bitmap of flagged video indexes. */
+  synchronized BitSet flagged() {
+    return (BitSet) flagged.clone();
+  }
+
+  /** Clears the bit of every flagged video from the given bitmap and returns it. */
+  synchronized BitSet removeFlagged(BitSet videos) {
+    videos.andNot(flagged);
+    return videos;
+  }
+}
@@ -1,55 +1,737 @@
 package com.google;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
  * A class used to represent a Video Library.
+ *
+ * <p>Videos can be added, updated and removed after loading. Every mutation updates the derived
+ * indexes in place and holds the write lock, so readers always see a consistent library.
+ * Indexes of removed videos are never reused, which keeps bitmaps held elsewhere valid.
  */
 class VideoLibrary {
 
+  private static final Comparator<Video> TITLE_ORDER =
+      Comparator.comparing(Video::getTitle).thenComparingInt(Video::getIndex);
+
   private final HashMap<String, Video> videos;
+  private final List<Video> videosByIndex;
+  private final NavigableSet<Video> videosByTitle = new TreeSet<>(TITLE_ORDER);
+  private final BitSet liveVideos = new BitSet();
+  private final TextNormalizer normalizer = TextNormalizer.fromProperties();
+  private final TokenDictionary tokens = new TokenDictionary();
+  private final List<Terms> termsByIndex = new ArrayList<>();
+  // Indexed by token id; null where no live video has the token.
+  private final List<PostingList> tagIndex = new ArrayList<>();
+  private final List<PostingList> titleTokenIndex = new ArrayList<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile long version = 0;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private List<Video> pendingChanges = new ArrayList<>();
+  private volatile RelatedVideosIndex relatedVideos;
+  private volatile SuggestionIndex suggestions;
+  private final CatalogLoader.Summary loadSummary;
+
+  /** Receives the videos touched by each mutation once it is visible to readers. */
+  interface Listener {
+    /**
+     * Called with both the previous and the new version of every added, updated or removed
+     * video.
+     */
+    void videosChanged(List<Video> changed);
+  }
+
+  /** The normalized form of a video, computed once when it is added. */
+  private static class Terms {
+    final String title;
+    final int[] titleTokens;
+    // Aligned with the video's tags.
+    final int[] tags;
+
+    Terms(String title, int[] titleTokens, int[] tags) {
+      this.title = title;
+      this.titleTokens = titleTokens;
+      this.tags = tags;
+    }
+  }
+
+  /**
+   * The normalized title, title words and tags of a video. Computing it is the costly part of
+   * adding a video, so it is done before taking the write lock, which then only interns tokens.
+   */
+  static final class Analysis {
+    final String title;
+    // Without duplicates, in order of first appearance.
+    final List<String> titleWords;
+    // Aligned with the video's tags.
+    final List<String> tags;
+
+    private Analysis(String title, List<String> titleWords, List<String> tags) {
+      this.title = title;
+      this.titleWords = titleWords;
+      this.tags = tags;
+    }
+  }
+
+  /** A video with its title and tags in the normalized form the library searches by. */
+  static final class NormalizedVideo {
+    final Video video;
+    final String title;
+    // Aligned with the video's tags.
+    final List<String> tags;
+
+    NormalizedVideo(Video video, String title, List<String> tags) {
+      this.video = video;
+      this.title = title;
+      this.tags = tags;
+    }
+  }
+
+  /**
+   * Holds the default library, which is loaded on first use. Its related videos then start being
+   * ranked in the background.
+   */
+  private static class Shared {
+    static final VideoLibrary INSTANCE = load();
+
+    private static VideoLibrary load() {
+      VideoLibrary library = new VideoLibrary(defaultCatalog(), id -> true);
+      library.relatedVideos();
+      return library;
+    }
+  }
+
+  /** Returns the default library, loading its catalog at most once per process. */
+  static VideoLibrary shared() {
+    return Shared.INSTANCE;
+  }
 
   VideoLibrary() {
+    this(CatalogSource.resource("/videos.txt"), id -> true);
+  }
+
+  /**
+   * Loads the videos of a catalog in the videos.txt format, keeping only those whose id the
+   * filter accepts, such as the videos owned by one shard.
+   */
+  VideoLibrary(CatalogSource catalog, Predicate<String> filter) {
     this.videos = new HashMap<>();
+    this.videosByIndex = new ArrayList<>();
+    CatalogLoader.Summary summary = null;
     try {
-      File file = new File(this.getClass().getResource("/videos.txt").getFile());
-
-      Scanner scanner = new Scanner(file);
-      while (scanner.hasNextLine()) {
-        String line = scanner.nextLine();
-        String[] split = line.split("\\|");
-        String title = split[0].strip();
-        String id = split[1].strip();
-        List<String> tags;
-        if (split.length > 2) {
-          tags = Arrays.stream(split[2].split(",")).map(String::strip).collect(
-              Collectors.toList());
+      summary = CatalogLoader.load(catalog, this, filter);
+    } catch (IOException e) {
+      System.out.println("Couldn't load " + catalog.name() + ": " + e.getMessage());
+    }
+    this.loadSummary = summary;
+  }
+
+  /**
+   * Returns the catalog the shared library loads: the file or directory named by
+   * {@code -Dcatalog}, or else the bundled videos.txt.
+   */
+  static CatalogSource defaultCatalog() {
+    String path = System.getProperty("catalog");
+    return path == null ? CatalogSource.resource("/videos.txt") : CatalogSource.of(Path.of(path));
+  }
+
+  /** Returns how loading the catalog went, or null if it failed. */
+  CatalogLoader.Summary loadSummary() {
+    return loadSummary;
+  }
+
+  /**
+   * Adds a new video to the library. Returns false if a video with the same id already exists.
+   */
+  boolean addVideo(String title, String videoId, List<String> tags) {
+    boolean added = false;
+    List<Video> changed;
+    Analysis analysis = analyze(title, tags);
+    lock.writeLock().lock();
+    try {
+      if (!videos.containsKey(videoId)) {
+        putVideo(title, videoId, tags, analysis);
+        added = true;
+      }
+    } finally {
+      changed = takeChanges();
+      lock.writeLock().unlock();
+    }
+    notifyListeners(changed);
+    return added;
+  }
+
+  /**
+   * Replaces the title and tags of an existing video, keeping its index. Returns false if the
+   * video is not found.
+   */
+  boolean updateVideo(String title, String videoId, List<String> tags) {
+    boolean updated = false;
+    List<Video> changed;
+    Analysis analysis = analyze(title, tags);
+    lock.writeLock().lock();
+    try {
+      if (videos.containsKey(videoId)) {
+        putVideo(title, videoId, tags, analysis);
+        updated = true;
+      }
+    } finally {
+      changed = takeChanges();
+      lock.writeLock().unlock();
+    }
+    notifyListeners(changed);
+    return updated;
+  }
+
+  /** Removes a video from the library. Returns false if the video is not found. */
+  boolean removeVideo(String videoId) {
+    boolean removed;
+    List<Video> changed;
+    lock.writeLock().lock();
+    try {
+      removed = deleteVideo(videoId);
+    } finally {
+      changed = takeChanges();
+      lock.writeLock().unlock();
+    }
+    notifyListeners(changed);
+    return removed;
+  }
+
+  /**
+   * Applies a batch of updates under a single acquisition of the write lock, so readers see
+   * either none or all of them. Updates not yet analyzed are analyzed before taking the lock.
+   */
+  void applyUpdates(List<CatalogIngest.Update> updates) {
+    Analysis[] analyses = new Analysis[updates.size()];
+    for (int i = 0; i < analyses.length; i++) {
+      CatalogIngest.Update update = updates.get(i);
+      if (!update.isRemoval()) {
+        analyses[i] = update.getAnalysis() != null ? update.getAnalysis()
+            : analyze(update.getTitle(), update.getTags());
+      }
+    }
+    List<Video> changed;
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < analyses.length; i++) {
+        CatalogIngest.Update update = updates.get(i);
+        if (update.isRemoval()) {
+          deleteVideo(update.getVideoId());
         } else {
-          tags = new ArrayList<>();
+          putVideo(update.getTitle(), update.getVideoId(), update.getTags(), analyses[i]);
+        }
+      }
+    } finally {
+      changed = takeChanges();
+      lock.writeLock().unlock();
+    }
+    notifyListeners(changed);
+  }
+
+  /** Registers a listener for every later mutation of the library. */
+  void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /** Returns and resets the videos touched by the current mutation. Needs the write lock. */
+  private List<Video> takeChanges() {
+    if (pendingChanges.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Video> changed = pendingChanges;
+    pendingChanges = new ArrayList<>();
+    return changed;
+  }
+
+  private void notifyListeners(List<Video> changed) {
+    if (!changed.isEmpty()) {
+      for (Listener listener : listeners) {
+        listener.videosChanged(changed);
+      }
+    }
+  }
+
+  /** Adds the video, or replaces it keeping its index if it exists. Needs the write lock. */
+  private void putVideo(String title, String videoId, List<String> tags, Analysis analysis) {
+    Video old = videos.get(videoId);
+    int index;
+    if (old != null) {
+      erase(old);
+      index = old.getIndex();
+    } else {
+      index = videosByIndex.size();
+      videosByIndex.add(null);
+      termsByIndex.add(null);
+    }
+    Video video = new Video(index, title, videoId, tags);
+    videosByIndex.set(index, video);
+    insert(video, analysis);
+  }
+
+  /** Removes the video if it exists. Needs the write lock. */
+  private boolean deleteVideo(String videoId) {
+    Video old = videos.get(videoId);
+    if (old == null) {
+      return false;
+    }
+    erase(old);
+    videosByIndex.set(old.getIndex(), null);
+    termsByIndex.set(old.getIndex(), null);
+    return true;
+  }
+
+  private void insert(Video video, Analysis analysis) {
+    version++;
+    if (!listeners.isEmpty()) {
+      pendingChanges.add(video);
+    }
+    int index = video.getIndex();
+    videos.put(video.getVideoId(), video);
+    videosByTitle.add(video);
+    liveVideos.set(index);
+    Terms terms = intern(analysis);
+    termsByIndex.set(index, terms);
+    for (int tag : terms.tags) {
+      addPosting(tagIndex, tag, index);
+    }
+    for (int token : terms.titleTokens) {
+      addPosting(titleTokenIndex, token, index);
+    }
+  }
+
+  private void erase(Video video) {
+    version++;
+    if (!listeners.isEmpty()) {
+      pendingChanges.add(video);
+    }
+    int index = video.getIndex();
+    videos.remove(video.getVideoId());
+    videosByTitle.remove(video);
+    liveVideos.clear(index);
+    Terms terms = termsByIndex.get(index);
+    for (int tag : terms.tags) {
+      removePosting(tagIndex, tag, index);
+    }
+    for (int token : terms.titleTokens) {
+      removePosting(titleTokenIndex, token, index);
+    }
+  }
+
+  /**
+   * Normalizes the title and tags of a video the way this library indexes them. Needs no lock,
+   * so callers can do it on their own threads before adding the video.
+   */
+  Analysis analyze(String title, List<String> tags) {
+    String normalizedTitle = normalizer.normalize(title);
+    List<String> titleWords = TextNormalizer.words(normalizedTitle).stream()
+        .distinct()
+        .collect(Collectors.toList());
+    List<String> normalizedTags = new ArrayList<>(tags.size());
+    for (String tag : tags) {
+      normalizedTags.add(normalizer.normalize(tag));
+    }
+    return new Analysis(normalizedTitle, titleWords, normalizedTags);
+  }
+
+  /** Interns the tokens of an analyzed video. Needs the write lock. */
+  private Terms intern(Analysis analysis) {
+    int[] titleTokens = new int[analysis.titleWords.size()];
+    for (int i = 0; i < titleTokens.length; i++) {
+      titleTokens[i] = tokens.intern(analysis.titleWords.get(i));
+    }
+    int[] tags = new int[analysis.tags.size()];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = tokens.intern(analysis.tags.get(i));
+    }
+    return new Terms(analysis.title, titleTokens, tags);
+  }
+
+  private static void addPosting(List<PostingList> index, int token, int videoIndex) {
+    while (index.size() <= token) {
+      index.add(null);
+    }
+    PostingList postings = index.get(token);
+    if (postings == null) {
+      postings = new PostingList();
+      index.set(token, postings);
+    }
+    postings.add(videoIndex);
+  }
+
+  private static void removePosting(List<PostingList> index, int token, int videoIndex) {
+    PostingList postings = token < index.size() ? index.get(token) : null;
+    if (postings != null) {
+      postings.remove(videoIndex);
+      if (postings.isEmpty()) {
+        index.set(token, null);
+      }
+    }
+  }
+
+  /**
+   * Returns the related videos index of this library, creating it on first use. Creating it
+   * returns at once: it ranks the related videos of every video on a background thread.
+   */
+  RelatedVideosIndex relatedVideos() {
+    RelatedVideosIndex index = relatedVideos;
+    if (index == null) {
+      synchronized (this) {
+        index = relatedVideos;
+        if (index == null) {
+          index = new RelatedVideosIndex(this);
+          relatedVideos = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the suggestion index of this library, building it on first use. It then follows
+   * every change of the library.
+   */
+  SuggestionIndex suggestions() {
+    SuggestionIndex index = suggestions;
+    if (index == null) {
+      synchronized (this) {
+        index = suggestions;
+        if (index == null) {
+          index = new SuggestionIndex(this);
+          suggestions = index;
         }
-        this.videos.put(id, new Video(title, id, tags));
       }
-    } catch (FileNotFoundException e) {
-      System.out.println("Couldn't find videos.txt");
-      e.printStackTrace();
+    }
+    return index;
+  }
+
+  /** Returns a number that changes whenever a video is added, updated or removed. */
+  long version() {
+    return version;
+  }
+
+  /** Returns the number of videos in the library. */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return this.videos.size();
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
   List<Video> getVideos() {
-    return new ArrayList<>(this.videos.values());
+    lock.readLock().lock();
+    try {
+      return new ArrayList<>(this.videos.values());
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   /**
    * Get a video by id. Returns null if the video is not found.
    */
   Video getVideo(String videoId) {
-    return this.videos.get(videoId);
+    lock.readLock().lock();
+    try {
+      return this.videos.get(videoId);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get a video by its dense index. Returns null if the index is out of range or the video has
+   * been removed.
+   */
+  Video getVideo(int index) {
+    lock.readLock().lock();
+    try {
+      return index >= 0 && index < this.videosByIndex.size() ? this.videosByIndex.get(index) : null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of indexes assigned so far, i.e. the size of a full bitmap. */
+  int indexCount() {
+    lock.readLock().lock();
+    try {
+      return this.videosByIndex.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns a bitmap with the index of every video in the library set. */
+  BitSet allVideos() {
+    lock.readLock().lock();
+    try {
+      return (BitSet) liveVideos.clone();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns a bitmap with the index of every video matching the predicate set. */
+  BitSet matching(Predicate<Video> predicate) {
+    lock.readLock().lock();
+    try {
+      BitSet result = new BitSet(this.videosByIndex.size());
+      for (Video video : this.videos.values()) {
+        if (predicate.test(video)) {
+          result.set(video.getIndex());
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the normalizer applied to titles and tags, for normalizing search terms alike. */
+  TextNormalizer normalizer() {
+    return normalizer;
+  }
+
+  /**
+   * Returns the video with the index along with its title and tags as the library normalized
+   * them, or null if there is no such video.
+   */
+  NormalizedVideo normalized(int index) {
+    lock.readLock().lock();
+    try {
+      Video video = index >= 0 && index < videosByIndex.size() ? videosByIndex.get(index) : null;
+      return video == null ? null : normalize(video);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns every video along with its normalized title and tags, read under one lock. */
+  List<NormalizedVideo> normalizedVideos() {
+    lock.readLock().lock();
+    try {
+      List<NormalizedVideo> result = new ArrayList<>(videos.size());
+      for (Video video : videosByIndex) {
+        if (video != null) {
+          result.add(normalize(video));
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the normalized form of a video in the library. Needs the lock. */
+  private NormalizedVideo normalize(Video video) {
+    Terms terms = termsByIndex.get(video.getIndex());
+    List<String> tags = new ArrayList<>(terms.tags.length);
+    for (int tag : terms.tags) {
+      tags.add(tokens.token(tag));
+    }
+    return new NormalizedVideo(video, terms.title, tags);
+  }
+
+  /**
+   * Returns the token ids of the normalized tags of the video with the index, in the order of its
+   * tags, or an empty array if there is no such video.
+   */
+  int[] tagTokens(int index) {
+    lock.readLock().lock();
+    try {
+      Terms terms = index >= 0 && index < termsByIndex.size() ? termsByIndex.get(index) : null;
+      return terms == null ? new int[0] : terms.tags.clone();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns a bitmap of the videos carrying exactly the given tag, after normalization. */
+  BitSet withTag(String tag) {
+    String normalized = normalizer.normalize(tag);
+    lock.readLock().lock();
+    try {
+      return toBitSet(tagIndex, tokens.find(normalized));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the token id of the tag after normalization, or -1 if no video ever carried it. */
+  int tagToken(String tag) {
+    String normalized = normalizer.normalize(tag);
+    lock.readLock().lock();
+    try {
+      return tokens.find(normalized);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the indexes of the videos carrying the normalized tag with the token id, ascending,
+   * or null if more than limit videos carry it. Costs the number of videos returned, however
+   * large the library.
+   */
+  int[] tagPostings(int token, int limit) {
+    lock.readLock().lock();
+    try {
+      PostingList postings = token >= 0 && token < tagIndex.size() ? tagIndex.get(token) : null;
+      if (postings == null) {
+        return new int[0];
+      }
+      return postings.cardinality() > limit ? null : postings.toArray();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns a bitmap of the posting list of the token. Needs the lock. */
+  private BitSet toBitSet(List<PostingList> index, int token) {
+    PostingList postings = token >= 0 && token < index.size() ? index.get(token) : null;
+    if (postings == null) {
+      return new BitSet();
+    }
+    long[] words = bitmapWords();
+    postings.orInto(words);
+    return BitSet.valueOf(words);
+  }
+
+  /** Returns the words of an empty bitmap long enough for every index. Needs the lock. */
+  private long[] bitmapWords() {
+    return new long[(videosByIndex.size() + Long.SIZE - 1) / Long.SIZE];
+  }
+
+  /**
+   * Returns a bitmap of the videos with a tag containing the given text, after normalization.
+   * Only the token dictionary is scanned, never the videos themselves.
+   */
+  BitSet withTagText(String text) {
+    String normalized = normalizer.normalize(text);
+    lock.readLock().lock();
+    try {
+      return containing(tagIndex, normalized);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns a bitmap of the videos with a title word containing the given term, after
+   * normalization. Only the token dictionary is scanned, never the videos themselves.
+   */
+  BitSet withTitleToken(String term) {
+    String normalized = normalizer.normalize(term);
+    lock.readLock().lock();
+    try {
+      return containing(titleTokenIndex, normalized);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns a bitmap of the videos whose title contains the given text, after normalization. The
+   * candidates come from the title words containing each word of the text; only when the text
+   * is more than one word are their normalized titles checked.
+   */
+  BitSet withTitleText(String text) {
+    String normalized = normalizer.normalize(text);
+    List<String> words = TextNormalizer.words(normalized);
+    lock.readLock().lock();
+    try {
+      BitSet candidates = null;
+      for (String word : words) {
+        BitSet containingWord = containing(titleTokenIndex, word);
+        if (candidates == null) {
+          candidates = containingWord;
+        } else {
+          candidates.and(containingWord);
+        }
+      }
+      if (candidates == null) {
+        candidates = (BitSet) liveVideos.clone();
+      }
+      if (words.size() != 1 || !words.get(0).equals(normalized)) {
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+          if (!termsByIndex.get(i).title.contains(normalized)) {
+            candidates.clear(i);
+          }
+        }
+      }
+      return candidates;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the union of the bitmaps of every token containing the text. Needs the lock. */
+  private BitSet containing(List<PostingList> index, String text) {
+    long[] words = bitmapWords();
+    for (int token = 0; token < index.size(); token++) {
+      PostingList videos = index.get(token);
+      if (videos != null && tokens.token(token).contains(text)) {
+        videos.orInto(words);
+      }
+    }
+    return BitSet.valueOf(words);
+  }
+
+  /**
+   * Returns up to limit videos whose index is set in the bitmap, or any video if it is null, that
+   * come after the given video in title order, or from the start if it is null. Lets callers
+   * page through a large selection without copying it or holding the lock between pages.
+   */
+  List<Video> inTitleOrderAfter(Video after, BitSet selection, int limit) {
+    lock.readLock().lock();
+    try {
+      List<Video> page = new ArrayList<>(Math.min(limit, this.videosByTitle.size()));
+      Iterable<Video> rest = after == null ? this.videosByTitle
+          : this.videosByTitle.tailSet(after, false);
+      for (Video video : rest) {
+        if (page.size() == limit) {
+          break;
+        }
+        if (selection == null || selection.get(video.getIndex())) {
+          page.add(video);
+        }
+      }
+      return page;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the videos whose index is set in the bitmap, sorted by title. */
+  List<Video> inTitleOrder(BitSet selection) {
+    lock.readLock().lock();
+    try {
+      List<Video> result = new ArrayList<>(selection.cardinality());
+      for (Video video : this.videosByTitle) {
+        if (selection.get(video.getIndex())) {
+          result.add(video);
+        }
+      }
+      return result;
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 }
@@ -1,22 +1,81 @@
 package com.google;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
+/**
+ * A class used to hold the state of one user: the playing video and their playlists. The library
+ * and the moderation flags are injected, so any number of players can share one loaded catalog.
+ */
 public class VideoPlayer {
 
   private final VideoLibrary videoLibrary;
+  final VideoFlags flags;
+  private final PlaybackHistory history;
   private Video playingVideo;
   private boolean paused = false;
+  private PlaybackQueue queue;
+  private final PrintStream out;
+  // Null reads System.in as it is when a prompt is answered.
+  private final InputStream in;
+
+  /** How a command changing playlists or flags ended, for callers answering with a status. */
+  enum Outcome {
+    DONE,
+    /** The video or playlist it names does not exist. */
+    NOT_FOUND,
+    /** It conflicts with the current state, such as flagging a video already flagged. */
+    REFUSED
+  }
 
+  /**
+   * Creates a player over the shared default library with its own, empty set of flags and
+   * playback history, logged to {@code -Dplayback.log} if it is set.
+   */
   public VideoPlayer() {
-    this.videoLibrary = new VideoLibrary();
+    this(VideoLibrary.shared(), new VideoFlags(), PlaybackHistory.fromProperties(1024));
+  }
+
+  /** Creates a player printing to System.out and reading answers to its prompts from System.in. */
+  VideoPlayer(VideoLibrary videoLibrary, VideoFlags flags, PlaybackHistory history) {
+    this(videoLibrary, flags, history, System.out, null);
+  }
+
+  /** Creates a player printing to out and reading answers to its prompts from in. */
+  VideoPlayer(VideoLibrary videoLibrary, VideoFlags flags, PlaybackHistory history,
+      PrintStream out, InputStream in) {
+    this.videoLibrary = videoLibrary;
+    this.flags = flags;
+    this.history = history;
+    this.out = out;
+    this.in = in;
+  }
+
+  /** Returns the stream the player prints to. */
+  PrintStream out() {
+    return out;
   }
 
   public void numberOfVideos() {
-    System.out.printf("%s videos in the library%n", videoLibrary.getVideos().size());
+    out.printf("%s videos in the library%n", videoLibrary.size());
+  }
+
+  /** Displays a failed command's message and counts it as an error in the command metrics. */
+  private void error(String format, Object... args) {
+    CommandMetrics.recordError();
+    out.printf(format, args);
+  }
+
+  /** Displays a failed command's message, counts it as an error and returns the outcome. */
+  private Outcome fail(Outcome outcome, String format, Object... args) {
+    error(format, args);
+    return outcome;
   }
 
   private String videoDetail(Video video) {
@@ -26,35 +85,36 @@ public class VideoPlayer {
             video.getTags().stream().reduce(
                     (t, s) -> t + " " + s
             ).orElse(""))
-            + (flags.containsKey(video.getVideoId())
-            ? (" - FLAGGED (reason: " + flags.get(video.getVideoId()) + ")") : "");
+            + (flags.isFlagged(video)
+            ? (" - FLAGGED (reason: " + flags.getReason(video) + ")") : "");
   }
 
   public void showAllVideos() {
-    System.out.println("Here's a list of all available videos:");
-    List<Video> videos = videoLibrary.getVideos();
-    videos.sort(Comparator.comparing(Video::getTitle));
+    out.println("Here's a list of all available videos:");
+    List<Video> videos = videoLibrary.inTitleOrder(videoLibrary.allVideos());
+    CommandMetrics.recordResults(videos.size());
     for (Video video : videos) {
-      System.out.println(videoDetail(video));
+      out.println(videoDetail(video));
     }
   }
 
   private void stopVideoIfPlaying() {
     if (playingVideo != null) {
-      System.out.printf("Stopping video: %s%n", playingVideo.getTitle());
+      out.printf("Stopping video: %s%n", playingVideo.getTitle());
+      history.record(PlaybackHistory.EventType.STOP, playingVideo);
     }
     playingVideo = null;
   }
 
   private void playNewVideo(Video video) {
     assert video != null;
-    String videoId = video.getVideoId();
-    if (flags.containsKey(videoId)) {
-      System.out.printf("Cannot play video: Video is currently flagged (reason: %s)%n",
-              flags.get(videoId));
+    if (flags.isFlagged(video)) {
+      error("Cannot play video: Video is currently flagged (reason: %s)%n",
+              flags.getReason(video));
       return;
     }
-    System.out.printf("Playing video: %s%n", video.getTitle());
+    out.printf("Playing video: %s%n", video.getTitle());
+    history.record(PlaybackHistory.EventType.PLAY, video);
     playingVideo = video;
     paused = false;
   }
@@ -62,45 +122,65 @@ public class VideoPlayer {
   public void playVideo(String videoId) {
     Video video = videoLibrary.getVideo(videoId);
     if (video != null) {
+      queue = null;
       stopVideoIfPlaying();
       playNewVideo(video);
     } else {
-      System.out.println("Cannot play video: Video does not exist");
+      error("Cannot play video: Video does not exist%n");
     }
   }
 
   public void stopVideo() {
+    queue = null;
     if (playingVideo != null) {
-      System.out.printf("Stopping video: %s%n", playingVideo.getTitle());
+      out.printf("Stopping video: %s%n", playingVideo.getTitle());
+      history.record(PlaybackHistory.EventType.STOP, playingVideo);
       playingVideo = null;
     } else {
-      System.out.println("Cannot stop video: No video is currently playing");
+      error("Cannot stop video: No video is currently playing%n");
     }
   }
 
   Random generator = new Random();
 
   public void playRandomVideo() {
+    queue = null;
     stopVideoIfPlaying();
-    List<Video> videos = videoLibrary.getVideos().stream()
-            .filter(x -> !flags.containsKey(x.getVideoId())).collect(Collectors.toList());
-    if (videos.isEmpty()) {
-      System.out.println("No videos available");
+    BitSet playable = flags.removeFlagged(videoLibrary.allVideos());
+    int count = playable.cardinality();
+    if (count == 0) {
+      out.println("No videos available");
+      return;
+    }
+    int index = playable.nextSetBit(0);
+    for (int skip = generator.nextInt(count); skip > 0; skip--) {
+      index = playable.nextSetBit(index + 1);
+    }
+    playNewVideo(videoLibrary.getVideo(index));
+  }
+
+  /** Plays a random unflagged video, picking popular videos more often. */
+  public void playPopularRandomVideo() {
+    queue = null;
+    stopVideoIfPlaying();
+    Video video = history.popularitySampler(videoLibrary, flags).sample(generator);
+    if (video == null) {
+      out.println("No videos available");
       return;
     }
-    int index = generator.nextInt(videos.size());
-    playNewVideo(videos.get(index));
+    playNewVideo(video);
   }
 
   public void pauseVideo() {
     if (playingVideo == null) {
-      System.out.println("Cannot pause video: No video is currently playing");
+      error("Cannot pause video: No video is currently playing%n");
     } else {
       String videoName = playingVideo.getTitle();
       if (paused) {
-        System.out.printf("Video already paused: %s%n", videoName);
+        out.printf("Video already paused: %s%n", videoName);
       } else {
-        System.out.printf("Pausing video: %s%n", videoName);
+        out.printf("Pausing video: %s%n", videoName);
+        history.record(PlaybackHistory.EventType.PAUSE, playingVideo);
         paused = true;
       }
     }
@@ -108,158 +188,285 @@ public class VideoPlayer {
 
   public void continueVideo() {
     if (playingVideo == null) {
-      System.out.println("Cannot continue video: No video is currently playing");
+      error("Cannot continue video: No video is currently playing%n");
     } else {
       String videoName = playingVideo.getTitle();
       if (paused) {
-        System.out.printf("Continuing video: %s%n", videoName);
+        out.printf("Continuing video: %s%n", videoName);
+        history.record(PlaybackHistory.EventType.CONTINUE, playingVideo);
         paused = false;
       } else {
-        System.out.println("Cannot continue video: Video is not paused");
+        error("Cannot continue video: Video is not paused%n");
+      }
+    }
+  }
+
+  public void showRelatedVideos(String videoId) {
+    Video video = videoLibrary.getVideo(videoId);
+    if (video == null) {
+      error("Cannot show related videos: Video does not exist%n");
+      return;
+    }
+    List<Video> related = videoLibrary.relatedVideos().relatedTo(video, flags, 5);
+    CommandMetrics.recordResults(related.size());
+    if (related.isEmpty()) {
+      out.println("No related videos for " + video.getTitle());
+    } else {
+      out.printf("Here are the videos related to %s:%n", video.getTitle());
+      for (int i = 0; i < related.size(); i++) {
+        out.println((i + 1) + ") " + videoDetail(related.get(i)));
+      }
+    }
+  }
+
+  public void showMostPlayed(int count) {
+    List<Integer> indexes = history.mostPlayed(count);
+    showPlayedVideos("Most played videos:", indexes, true);
+  }
+
+  public void showRecentlyPlayed(int count) {
+    List<Integer> indexes = history.recentlyPlayed(count);
+    showPlayedVideos("Recently played videos:", indexes, false);
+  }
+
+  private void showPlayedVideos(String header, List<Integer> indexes, boolean withCounts) {
+    CommandMetrics.recordResults(indexes.size());
+    if (indexes.isEmpty()) {
+      out.println("No videos have been played yet");
+      return;
+    }
+    out.println(header);
+    int number = 0;
+    for (int index : indexes) {
+      Video video = videoLibrary.getVideo(index);
+      if (video != null) {
+        number++;
+        out.println(number + ") " + videoDetail(video)
+                + (withCounts ? " - " + history.playCount(video) + " plays" : ""));
       }
     }
   }
 
   public void showPlaying() {
     if (playingVideo == null) {
-      System.out.println("No video is currently playing");
+      out.println("No video is currently playing");
     } else {
-      System.out.println("Currently playing: "
+      out.println("Currently playing: "
               + videoDetail(playingVideo)
               + (paused ? " - PAUSED" : ""));
     }
   }
 
 
-  Map<String, VideoPlaylist> playListMap = new HashMap<>();
+  final CaseInsensitiveMap<VideoPlaylist> playListMap = new CaseInsensitiveMap<>();
+  final ConcurrentSkipListMap<String, VideoPlaylist> playListDirectory =
+          new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
 
-  public void createPlaylist(String playlistName) {
-    String lowerCaseName = playlistName.toLowerCase();
-    if (playListMap.containsKey(lowerCaseName)) {
-      System.out.println("Cannot create playlist: A playlist with the same name already exists");
-    } else {
-      playListMap.put(lowerCaseName, new VideoPlaylist(playlistName));
-      System.out.println("Successfully created new playlist: " + playlistName);
+  public Outcome createPlaylist(String playlistName) {
+    VideoPlaylist playList = new VideoPlaylist(playlistName);
+    if (playListMap.putIfAbsent(playlistName, playList) != null) {
+      return fail(Outcome.REFUSED,
+          "Cannot create playlist: A playlist with the same name already exists%n");
     }
+    playListDirectory.put(playlistName, playList);
+    out.println("Successfully created new playlist: " + playlistName);
+    return Outcome.DONE;
   }
 
-  public void addVideoToPlaylist(String playlistName, String videoId) {
-    String lowerCaseName = playlistName.toLowerCase();
-    if (playListMap.containsKey(lowerCaseName)) {
-      Video video = videoLibrary.getVideo(videoId);
-      VideoPlaylist playList = playListMap.get(lowerCaseName);
-      if (video != null) {
-        if (flags.containsKey(videoId)) {
-          System.out.printf("Cannot add video to %s: "
-                  + "Video is currently flagged (reason: %s)%n", playlistName, flags.get(videoId));
-          return;
-        }
-        if (playList.addVideo(video)) {
-          System.out.printf("Added video to %s: %s%n", playlistName, video.getTitle());
-        } else {
-          System.out.printf("Cannot add video to %s: Video already added%n", playlistName);
-        }
-      } else {
-        System.out.printf("Cannot add video to %s: Video does not exist%n", playlistName);
-      }
-    } else {
-      System.out.printf("Cannot add video to %s: Playlist does not exist%n", playlistName);
+  public Outcome addVideoToPlaylist(String playlistName, String videoId) {
+    VideoPlaylist playList = playListMap.get(playlistName);
+    if (playList == null) {
+      return fail(Outcome.NOT_FOUND,
+          "Cannot add video to %s: Playlist does not exist%n", playlistName);
     }
+    Video video = videoLibrary.getVideo(videoId);
+    if (video == null) {
+      return fail(Outcome.NOT_FOUND,
+          "Cannot add video to %s: Video does not exist%n", playlistName);
+    }
+    if (flags.isFlagged(video)) {
+      return fail(Outcome.REFUSED, "Cannot add video to %s: "
+          + "Video is currently flagged (reason: %s)%n", playlistName, flags.getReason(video));
+    }
+    if (!playList.addVideo(video)) {
+      return fail(Outcome.REFUSED, "Cannot add video to %s: Video already added%n", playlistName);
+    }
+    out.printf("Added video to %s: %s%n", playlistName, video.getTitle());
+    return Outcome.DONE;
   }
 
   public void showAllPlaylists() {
-    List<String> lowerCaseNames = new ArrayList<>(playListMap.keySet());
-    lowerCaseNames.sort(CharSequence::compare);
-    if (lowerCaseNames.isEmpty()) {
-      System.out.println("No playlists exist yet");
-    } else {
-      System.out.println("Showing all playlists:");
-      lowerCaseNames.forEach(
-              n -> System.out.println(playListMap.get(n).name)
-      );
+    showPlaylists(null, null, 0);
+  }
+
+  /**
+   * Lists playlists in name order by walking the directory, optionally only those whose name
+   * starts with the prefix, only those after the given name, and at most limit of them (0 for
+   * no limit). When more match, prints the last name shown, to pass as after for the next page.
+   */
+  public void showPlaylists(String prefix, String after, int limit) {
+    if (playListDirectory.isEmpty()) {
+      out.println("No playlists exist yet");
+      return;
+    }
+    NavigableMap<String, VideoPlaylist> view = playListDirectory;
+    if (after != null
+            && (prefix == null || String.CASE_INSENSITIVE_ORDER.compare(after, prefix) >= 0)) {
+      view = view.tailMap(after, false);
+    } else if (prefix != null) {
+      view = view.tailMap(prefix, true);
+    }
+    int shown = 0;
+    String lastShown = null;
+    for (VideoPlaylist playList : view.values()) {
+      if (prefix != null && !playList.name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+        break;
+      }
+      if (limit > 0 && shown == limit) {
+        out.println("More playlists available after: " + lastShown);
+        break;
+      }
+      if (shown == 0) {
+        out.println("Showing all playlists:");
+      }
+      out.println(playList.name);
+      lastShown = playList.name;
+      shown++;
+    }
+    CommandMetrics.recordResults(shown);
+    if (shown == 0) {
+      out.println("No matching playlists");
     }
   }
 
   public void showPlaylist(String playlistName) {
-    VideoPlaylist playList = playListMap.get(playlistName.toLowerCase());
+    VideoPlaylist playList = playListMap.get(playlistName);
     if (playList != null) {
-      System.out.printf("Showing playlist: %s%n", playlistName);
-      if (playList.videos.isEmpty()) {
-        System.out.println("  No videos here yet");
+      out.printf("Showing playlist: %s%n", playlistName);
+      List<Video> videos = playList.getVideos(videoLibrary);
+      CommandMetrics.recordResults(videos.size());
+      if (videos.isEmpty()) {
+        out.println("  No videos here yet");
       } else {
-        playList.videos.forEach(
-                v -> System.out.println("  " + videoDetail(v))
+        videos.forEach(
+                v -> out.println("  " + videoDetail(v))
         );
       }
     } else {
-      System.out.printf("Cannot show playlist %s: Playlist does not exist%n", playlistName);
+      error("Cannot show playlist %s: Playlist does not exist%n", playlistName);
     }
   }
 
-  public void removeFromPlaylist(String playlistName, String videoId) {
-    String lowerCaseName = playlistName.toLowerCase();
-    VideoPlaylist playList = playListMap.get(lowerCaseName);
-    if (playList != null) {
-      Video video = videoLibrary.getVideo(videoId);
-      if (video != null) {
-        if (playList.removeVideo(video)) {
-          System.out.printf("Removed video from %s: %s%n", playlistName, video.getTitle());
-        } else {
-          System.out.printf("Cannot remove video from %s: Video is not in playlist%n",
-                  playlistName);
-        }
-      } else {
-        System.out.printf("Cannot remove video from %s: Video does not exist%n", playlistName);
-      }
-    } else {
-      System.out.printf("Cannot remove video from %s: Playlist does not exist%n", playlistName);
+  public Outcome removeFromPlaylist(String playlistName, String videoId) {
+    VideoPlaylist playList = playListMap.get(playlistName);
+    if (playList == null) {
+      return fail(Outcome.NOT_FOUND,
+          "Cannot remove video from %s: Playlist does not exist%n", playlistName);
+    }
+    Video video = videoLibrary.getVideo(videoId);
+    if (video == null) {
+      return fail(Outcome.NOT_FOUND,
+          "Cannot remove video from %s: Video does not exist%n", playlistName);
+    }
+    if (!playList.removeVideo(video)) {
+      return fail(Outcome.REFUSED,
+          "Cannot remove video from %s: Video is not in playlist%n", playlistName);
     }
+    out.printf("Removed video from %s: %s%n", playlistName, video.getTitle());
+    return Outcome.DONE;
   }
 
   public void clearPlaylist(String playlistName) {
-    String lowerCaseName = playlistName.toLowerCase();
-    VideoPlaylist playList = playListMap.get(lowerCaseName);
+    VideoPlaylist playList = playListMap.get(playlistName);
     if (playList != null) {
-      playList.videos = new ArrayList<>();
-      System.out.println("Successfully removed all videos from " + playlistName);
+      playList.clear();
+      out.println("Successfully removed all videos from " + playlistName);
     } else {
-      System.out.printf("Cannot clear playlist %s: Playlist does not exist%n", playlistName);
+      error("Cannot clear playlist %s: Playlist does not exist%n", playlistName);
     }
   }
 
-  public void deletePlaylist(String playlistName) {
-    String lowerCaseName = playlistName.toLowerCase();
-    if (playListMap.containsKey(lowerCaseName)) {
-      playListMap.remove(lowerCaseName);
-      System.out.println("Deleted playlist: " + playlistName);
+  public Outcome deletePlaylist(String playlistName) {
+    if (playListMap.remove(playlistName) == null) {
+      return fail(Outcome.NOT_FOUND,
+          "Cannot delete playlist %s: Playlist does not exist%n", playlistName);
+    }
+    playListDirectory.remove(playlistName);
+    out.println("Deleted playlist: " + playlistName);
+    return Outcome.DONE;
+  }
+
+  /** Plays the playlist from its first playable video, in order or shuffled. */
+  public void playPlaylist(String playlistName, boolean shuffle) {
+    VideoPlaylist playList = playListMap.get(playlistName);
+    if (playList == null) {
+      error("Cannot play playlist %s: Playlist does not exist%n", playlistName);
+      return;
+    }
+    PlaybackQueue newQueue = new PlaybackQueue(playList, shuffle ? generator : null);
+    Video first = newQueue.next(videoLibrary, flags);
+    if (first == null) {
+      error("Cannot play playlist %s: No playable videos%n", playlistName);
+      return;
+    }
+    stopVideoIfPlaying();
+    queue = newQueue;
+    out.println("Playing playlist: " + playlistName);
+    playNewVideo(first);
+  }
+
+  public void nextVideo() {
+    if (queue == null) {
+      error("Cannot play next video: No playlist is playing%n");
+      return;
+    }
+    Video video = queue.next(videoLibrary, flags);
+    stopVideoIfPlaying();
+    if (video == null) {
+      out.println("Reached the end of playlist: " + queue.name());
+      queue = null;
+    } else {
+      playNewVideo(video);
+    }
+  }
+
+  public void previousVideo() {
+    if (queue == null) {
+      error("Cannot play previous video: No playlist is playing%n");
+      return;
+    }
+    Video video = queue.previous(videoLibrary, flags);
+    if (video == null) {
+      error("Cannot play previous video: Already at the start of %s%n", queue.name());
     } else {
-      System.out.printf("Cannot delete playlist %s: Playlist does not exist%n", playlistName);
+      stopVideoIfPlaying();
+      playNewVideo(video);
     }
   }
 
-  private void searchVideosBy(Predicate<Video> function, String searchString) {
-    List<Video> videos = videoLibrary.getVideos().stream()
-            .filter(function)
-            .filter(x -> !flags.containsKey(x.getVideoId()))
-            .sorted(Comparator.comparing(Video::getTitle))
-            .collect(Collectors.toList());
+  private void searchVideosBy(BitSet matches, String searchString) {
+    List<Video> videos = videoLibrary.inTitleOrder(flags.removeFlagged(matches));
+    CommandMetrics.recordResults(videos.size());
     if (videos.isEmpty()) {
-      System.out.println("No search results for " + searchString);
+      out.println("No search results for " + searchString);
     } else {
-      System.out.printf("Here are the results for %s:%n", searchString);
+      out.printf("Here are the results for %s:%n", searchString);
       AtomicInteger number = new AtomicInteger();
       videos.forEach(x -> {
         number.getAndIncrement();
-        System.out.println(number + ") " + videoDetail(x));
+        out.println(number + ") " + videoDetail(x));
       });
-      System.out.println("Would you like to play any of the above? "
+      out.println("Would you like to play any of the above? "
               + "If yes, specify the number of the video.\n"
               + "If your answer is not a valid number, we will assume it's a no.");
       int answer;
+      CommandMetrics.pauseTimer();
       try {
-        answer = new Scanner(System.in).nextInt() - 1;
-      } catch (InputMismatchException ignored) {
+        answer = new Scanner(in != null ? in : System.in).nextInt() - 1;
+      } catch (NoSuchElementException ignored) {
         answer = -1;
+      } finally {
+        CommandMetrics.resumeTimer();
       }
       if (answer >= 0 && answer < videos.size()) {
         playVideo(videos.get(answer).getVideoId());
@@ -268,49 +475,159 @@ public class VideoPlayer {
   }
 
   public void searchVideos(String searchTerm) {
-    searchVideosBy(x -> x.getTitle().toLowerCase().contains(searchTerm.toLowerCase()), searchTerm);
+    searchVideosBy(videoLibrary.withTitleText(searchTerm), searchTerm);
   }
 
   public void searchVideosWithTag(String videoTag) {
-    searchVideosBy(x -> x.getTags().stream()
-                    .anyMatch(t -> t.toLowerCase().contains(videoTag.toLowerCase())), videoTag);
+    searchVideosBy(videoLibrary.withTagText(videoTag), videoTag);
   }
 
-  Map<String, String> flags = new HashMap<>();
+  public void suggest(String prefix) {
+    List<String> suggestions = videoLibrary.suggestions().suggest(prefix, flags, 5);
+    CommandMetrics.recordResults(suggestions.size());
+    if (suggestions.isEmpty()) {
+      out.println("No suggestions for " + prefix);
+    } else {
+      out.printf("Here are the suggestions for %s:%n", prefix);
+      for (int i = 0; i < suggestions.size(); i++) {
+        out.println((i + 1) + ") " + suggestions.get(i));
+      }
+    }
+  }
 
-  public void flagVideo(String videoId) {
-    flagVideo(videoId, "Not supplied");
+  public void queryVideos(String query) {
+    VideoQuery parsed;
+    try {
+      parsed = VideoQuery.parse(query);
+    } catch (IllegalArgumentException e) {
+      error("Cannot run query: %s%n", e.getMessage());
+      return;
+    }
+    List<Video> videos = videoLibrary.inTitleOrder(parsed.evaluate(videoLibrary, flags));
+    CommandMetrics.recordResults(videos.size());
+    if (videos.isEmpty()) {
+      out.println("No query results for " + query);
+    } else {
+      out.printf("Here are the results for %s:%n", query);
+      for (int i = 0; i < videos.size(); i++) {
+        out.println((i + 1) + ") " + videoDetail(videos.get(i)));
+      }
+    }
   }
 
-  public void flagVideo(String videoId, String reason) {
+  public Outcome flagVideo(String videoId) {
+    return flagVideo(videoId, "Not supplied");
+  }
+
+  public Outcome flagVideo(String videoId, String reason) {
     Video video = videoLibrary.getVideo(videoId);
-    if (video != null) {
-      if (playingVideo != null && playingVideo.getVideoId().equals(videoId)) {
-        stopVideoIfPlaying();
-      }
-      if (flags.containsKey(videoId)) {
-        System.out.println("Cannot flag video: Video is already flagged");
-      } else {
-        flags.put(videoId, reason);
-        System.out.printf("Successfully flagged video: %s (reason: %s)%n",
-                video.getTitle(), reason);
-      }
+    if (video == null) {
+      return fail(Outcome.NOT_FOUND, "Cannot flag video: Video does not exist%n");
+    }
+    if (playingVideo != null && playingVideo.getVideoId().equals(videoId)) {
+      stopVideoIfPlaying();
+    }
+    if (!flags.flag(video, reason)) {
+      return fail(Outcome.REFUSED, "Cannot flag video: Video is already flagged%n");
+    }
+    out.printf("Successfully flagged video: %s (reason: %s)%n", video.getTitle(), reason);
+    return Outcome.DONE;
+  }
+
+  /** Flags every unflagged video carrying the tag in one change. */
+  public void flagVideosWithTag(String tag, String reason) {
+    flagVideos(videoLibrary.withTag(tag), reason, tag);
+  }
+
+  /** Flags every unflagged video matching the query in one change. */
+  public void flagVideosMatching(String query, String reason) {
+    BitSet matching;
+    try {
+      matching = VideoQuery.parse(query).evaluate(videoLibrary, flags);
+    } catch (IllegalArgumentException e) {
+      error("Cannot flag videos: %s%n", e.getMessage());
+      return;
+    }
+    flagVideos(matching, reason, query);
+  }
+
+  private void flagVideos(BitSet targets, String reason, String description) {
+    BitSet flaggedNow = flags.flagAll(targets, reason);
+    CommandMetrics.recordResults(flaggedNow.cardinality());
+    if (flaggedNow.isEmpty()) {
+      out.println("No videos to flag for " + description);
+      return;
+    }
+    if (playingVideo != null && flaggedNow.get(playingVideo.getIndex())) {
+      stopVideoIfPlaying();
+    }
+    out.printf("Successfully flagged %d videos (reason: %s)%n",
+        flaggedNow.cardinality(), reason);
+  }
+
+  /** Removes the flag from every flagged video matching the query in one change. */
+  public void allowVideosMatching(String query) {
+    BitSet matching;
+    try {
+      matching = VideoQuery.parse(query).evaluate(videoLibrary, flags);
+    } catch (IllegalArgumentException e) {
+      error("Cannot remove flags: %s%n", e.getMessage());
+      return;
+    }
+    BitSet allowed = flags.allowAll(matching);
+    CommandMetrics.recordResults(allowed.cardinality());
+    if (allowed.isEmpty()) {
+      out.println("No flagged videos for " + query);
     } else {
-      System.out.println("Cannot flag video: Video does not exist");
+      out.printf("Successfully removed flag from %d videos%n", allowed.cardinality());
     }
   }
 
-  public void allowVideo(String videoId) {
+  public Outcome allowVideo(String videoId) {
     Video video = videoLibrary.getVideo(videoId);
-    if (video != null) {
-      if (!flags.containsKey(videoId)) {
-        System.out.println("Cannot remove flag from video: Video is not flagged");
-      } else {
-        flags.remove(videoId);
-        System.out.printf("Successfully removed flag from video: %s%n", video.getTitle());
+    if (video == null) {
+      return fail(Outcome.NOT_FOUND, "Cannot remove flag from video: Video does not exist%n");
+    }
+    if (!flags.allow(video)) {
+      return fail(Outcome.REFUSED, "Cannot remove flag from video: Video is not flagged%n");
+    }
+    out.printf("Successfully removed flag from video: %s%n", video.getTitle());
+    return Outcome.DONE;
+  }
+
+  /** Writes the playing video, paused state and playlists in a compact binary form. */
+  void writeState(DataOutput out) throws IOException {
+    out.writeInt(playingVideo == null ? -1 : playingVideo.getIndex());
+    out.writeBoolean(paused);
+    out.writeInt(playListDirectory.size());
+    for (VideoPlaylist playList : playListDirectory.values()) {
+      out.writeUTF(playList.name);
+      out.writeInt(playList.size());
+      for (int i = 0; i < playList.size(); i++) {
+        out.writeInt(playList.indexAt(i));
       }
-    } else {
-      System.out.println("Cannot remove flag from video: Video does not exist");
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Restores state written by {@link #writeState} into this newly created player. Videos removed
+   * from the library in the meantime are dropped.
+   */
+  void readState(DataInput in) throws IOException {
+    playingVideo = videoLibrary.getVideo(in.readInt());
+    paused = in.readBoolean() && playingVideo != null;
+    int playListCount = in.readInt();
+    for (int i = 0; i < playListCount; i++) {
+      VideoPlaylist playList = new VideoPlaylist(in.readUTF());
+      int size = in.readInt();
+      for (int j = 0; j < size; j++) {
+        Video video = videoLibrary.getVideo(in.readInt());
+        if (video != null) {
+          playList.addVideo(video);
+        }
+      }
+      playListMap.putIfAbsent(playList.name, playList);
+      playListDirectory.put(playList.name, playList);
+    }
+  }
+}
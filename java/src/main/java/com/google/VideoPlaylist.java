@@ -1,33 +1,137 @@
 package com.google;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-/** A class used to represent a Playlist */
+/**
+ * A class used to represent a Playlist.
+ *
+ * <p>Videos are stored as a compact array of library indexes and only resolved to {@link Video}s
+ * when the playlist is displayed. Small playlists check membership by scanning that array; larger
+ * ones also keep an open-addressing hash set of the indexes.
+ */
 public class VideoPlaylist {
+  private static final int[] EMPTY = new int[0];
+  private static final int HASH_THRESHOLD = 64;
+
   public final String name;
-  public List<Video> videos;
+  private int[] videoIndexes = EMPTY;
+  private int size = 0;
+  private int[] membership = null;
 
   VideoPlaylist(String name) {
     this.name = name;
-    this.videos = new ArrayList<>();
   }
 
   public boolean addVideo(Video video) {
-    if (videos.contains(video)) {
+    int index = video.getIndex();
+    if (contains(index)) {
       return false;
-    } else {
-      videos.add(video);
-      return true;
     }
+    if (size == videoIndexes.length) {
+      videoIndexes = Arrays.copyOf(videoIndexes, Math.max(4, size + (size >> 1)));
+    }
+    videoIndexes[size++] = index;
+    if (membership != null && size * 2 > membership.length) {
+      rebuildMembership();
+    } else if (membership != null) {
+      insertMember(membership, index);
+    } else if (size > HASH_THRESHOLD) {
+      rebuildMembership();
+    }
+    return true;
   }
 
   public boolean removeVideo(Video video) {
-    if (videos.contains(video)) {
-      videos.remove(video);
-      return true;
-    } else {
+    int index = video.getIndex();
+    for (int i = 0; i < size; i++) {
+      if (videoIndexes[i] == index) {
+        System.arraycopy(videoIndexes, i + 1, videoIndexes, i, size - i - 1);
+        size--;
+        if (membership != null) {
+          rebuildMembership();
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Removes all videos from the playlist. */
+  void clear() {
+    videoIndexes = EMPTY;
+    size = 0;
+    membership = null;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the library index of the video at the given position. */
+  int indexAt(int position) {
+    return videoIndexes[position];
+  }
+
+  /** Resolves the playlist against the library, skipping videos that have since been removed. */
+  List<Video> getVideos(VideoLibrary library) {
+    List<Video> videos = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      Video video = library.getVideo(videoIndexes[i]);
+      if (video != null) {
+        videos.add(video);
+      }
+    }
+    return videos;
+  }
+
+  private boolean contains(int index) {
+    if (membership == null) {
+      for (int i = 0; i < size; i++) {
+        if (videoIndexes[i] == index) {
+          return true;
+        }
+      }
       return false;
     }
+    int mask = membership.length - 1;
+    for (int slot = mix(index) & mask; membership[slot] != 0; slot = (slot + 1) & mask) {
+      if (membership[slot] == index + 1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void rebuildMembership() {
+    if (size <= HASH_THRESHOLD) {
+      membership = null;
+      return;
+    }
+    int[] slots = new int[Integer.highestOneBit(size * 4 - 1)];
+    for (int i = 0; i < size; i++) {
+      insertMember(slots, videoIndexes[i]);
+    }
+    membership = slots;
+  }
+
+  /** Stores index + 1 so that zero can mark an empty slot. */
+  private static void insertMember(int[] slots, int index) {
+    int mask = slots.length - 1;
+    int slot = mix(index) & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = index + 1;
+  }
+
+  private static int mix(int index) {
+    int h = index * 0x9E3779B9;
+    return h ^ (h >>> 16);
   }
 }
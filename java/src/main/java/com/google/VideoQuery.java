@@ -0,0 +1,152 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A class used to parse and evaluate video filter queries such as
+ * {@code tag:#cat AND title:amazing AND NOT flagged}.
+ *
+ * <p>Supported terms are {@code tag:<tag>}, {@code title:<word>} and {@code flagged}, combined
+ * with {@code NOT}, {@code AND}, {@code OR} (in decreasing order of precedence) and parentheses.
+ * Every term is answered from a bitmap index, so evaluation never scans videos.
+ */
+class VideoQuery {
+
+  /** A node of the parsed query tree. */
+  private interface Node {
+    BitSet evaluate(VideoLibrary library, VideoFlags flags);
+  }
+
+  private final Node root;
+
+  private VideoQuery(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Parses the query. Throws an IllegalArgumentException describing the problem if the query is
+   * not well formed.
+   */
+  static VideoQuery parse(String query) {
+    Parser parser = new Parser(tokenize(query));
+    Node root = parser.parseOr();
+    if (parser.position < parser.tokens.size()) {
+      throw new IllegalArgumentException("Unexpected " + parser.tokens.get(parser.position));
+    }
+    return new VideoQuery(root);
+  }
+
+  /** Returns a bitmap of the indexes of the videos matching the query. */
+  BitSet evaluate(VideoLibrary library, VideoFlags flags) {
+    return root.evaluate(library, flags);
+  }
+
+  private static List<String> tokenize(String query) {
+    List<String> tokens = new ArrayList<>();
+    for (String word : query.trim().split("\\s+")) {
+      int start = 0;
+      for (int i = 0; i < word.length(); i++) {
+        char c = word.charAt(i);
+        if (c == '(' || c == ')') {
+          if (i > start) {
+            tokens.add(word.substring(start, i));
+          }
+          tokens.add(String.valueOf(c));
+          start = i + 1;
+        }
+      }
+      if (start < word.length()) {
+        tokens.add(word.substring(start));
+      }
+    }
+    return tokens;
+  }
+
+  private static class Parser {
+    private final List<String> tokens;
+    private int position = 0;
+
+    Parser(List<String> tokens) {
+      this.tokens = tokens;
+    }
+
+    private boolean accept(String keyword) {
+      if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    Node parseOr() {
+      Node left = parseAnd();
+      while (accept("OR")) {
+        Node l = left;
+        Node r = parseAnd();
+        left = (library, flags) -> {
+          BitSet result = l.evaluate(library, flags);
+          result.or(r.evaluate(library, flags));
+          return result;
+        };
+      }
+      return left;
+    }
+
+    Node parseAnd() {
+      Node left = parseNot();
+      while (accept("AND")) {
+        Node l = left;
+        Node r = parseNot();
+        left = (library, flags) -> {
+          BitSet result = l.evaluate(library, flags);
+          result.and(r.evaluate(library, flags));
+          return result;
+        };
+      }
+      return left;
+    }
+
+    Node parseNot() {
+      if (accept("NOT")) {
+        Node operand = parseNot();
+        return (library, flags) -> {
+          BitSet result = library.allVideos();
+          result.andNot(operand.evaluate(library, flags));
+          return result;
+        };
+      }
+      return parseTerm();
+    }
+
+    Node parseTerm() {
+      if (position >= tokens.size()) {
+        throw new IllegalArgumentException("Unexpected end of query");
+      }
+      if (accept("(")) {
+        Node inner = parseOr();
+        if (!accept(")")) {
+          throw new IllegalArgumentException("Missing closing parenthesis");
+        }
+        return inner;
+      }
+      String token = tokens.get(position++);
+      if (token.equalsIgnoreCase("flagged")) {
+        return (library, flags) -> flags.flagged();
+      }
+      int colon = token.indexOf(':');
+      if (colon > 0 && colon < token.length() - 1) {
+        String field = token.substring(0, colon).toLowerCase(Locale.ROOT);
+        String value = token.substring(colon + 1);
+        if (field.equals("tag")) {
+          return (library, flags) -> library.withTag(value);
+        } else if (field.equals("title")) {
+          return (library, flags) -> library.withTitleToken(value);
+        }
+      }
+      throw new IllegalArgumentException("Unknown term " + token);
+    }
+  }
+}
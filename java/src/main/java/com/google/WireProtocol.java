@@ -0,0 +1,40 @@
+package com.google;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol spoken by {@link CommandServer} and {@link CommandClient}.
+ *
+ * <p>Every frame starts with its length as a big-endian int, not counting the length itself. A
+ * request is then an int id chosen by the client followed by the UTF-8 command line, for example
+ * {@code PLAY amazing_cats_video_id}. A response is the id of its request, a status byte and the
+ * UTF-8 text the command printed. Clients may send any number of requests before reading; the
+ * requests of a connection run, and are answered, in the order sent.
+ */
+final class WireProtocol {
+
+  static final int MAX_FRAME = 1 << 20;
+
+  /** The command ran; the text is what it printed, including any error message. */
+  static final byte OK = 0;
+  /** The command could not be run; the text says why. */
+  static final byte FAILED = 1;
+
+  private WireProtocol() {
+  }
+
+  static ByteBuffer request(int id, String command) {
+    byte[] text = command.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer frame = ByteBuffer.allocate(8 + text.length);
+    frame.putInt(4 + text.length).putInt(id).put(text).flip();
+    return frame;
+  }
+
+  static ByteBuffer response(int id, byte status, String output) {
+    byte[] text = output.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer frame = ByteBuffer.allocate(9 + text.length);
+    frame.putInt(5 + text.length).putInt(id).put(status).put(text).flip();
+    return frame;
+  }
+}
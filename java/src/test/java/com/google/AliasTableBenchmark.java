@@ -0,0 +1,38 @@
+package com.google;
+
+import java.util.Random;
+
+/**
+ * Measures the build cost and draw rate of an {@link AliasTable} over ten million weights with a
+ * long-tailed, popularity-like distribution. Not run by the test suite; see the README for how to
+ * run benchmarks.
+ */
+public class AliasTableBenchmark {
+
+  private static final int ENTRIES = 10_000_000;
+  private static final int DRAWS = 50_000_000;
+
+  public static void main(String[] args) {
+    Random random = new Random(42);
+    double[] weights = new double[ENTRIES];
+    for (int i = 0; i < ENTRIES; i++) {
+      weights[i] = 1 + Math.floor(1 / (random.nextDouble() + 1e-6));
+    }
+
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      AliasTable table = new AliasTable(weights);
+      long build = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long checksum = 0;
+      for (int i = 0; i < DRAWS; i++) {
+        checksum += table.sample(random);
+      }
+      long draw = System.nanoTime() - start;
+
+      System.out.printf("round %d: build %d ms, %.1f M draws/sec (checksum %d)%n",
+          round, build / 1_000_000, DRAWS * 1e3 / draw, checksum);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class AliasTableTest {
+
+  @Test
+  public void testDrawsFollowWeights() {
+    var table = new AliasTable(new double[] {1, 0, 3, 0, 4});
+    var random = new Random(7);
+    var counts = new int[5];
+    for (int i = 0; i < 80_000; i++) {
+      counts[table.sample(random)]++;
+    }
+    assertEquals(0, counts[1]);
+    assertEquals(0, counts[3]);
+    assertTrue(Math.abs(counts[0] - 10_000) < 1_000, String.valueOf(counts[0]));
+    assertTrue(Math.abs(counts[2] - 30_000) < 1_000, String.valueOf(counts[2]));
+    assertTrue(Math.abs(counts[4] - 40_000) < 1_000, String.valueOf(counts[4]));
+  }
+
+  @Test
+  public void testZeroWeightsAreEmpty() {
+    assertTrue(new AliasTable(new double[] {0, 0}).isEmpty());
+  }
+}
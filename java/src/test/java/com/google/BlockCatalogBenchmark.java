@@ -0,0 +1,80 @@
+package com.google;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the size of a catalog as plain text, gzip and a {@link BlockCatalog}, and the time to
+ * decode and parse it, and to load it into a library, single-threaded and with every processor.
+ * Not run by the test suite; see the README for how to run benchmarks.
+ */
+public class BlockCatalogBenchmark {
+
+  private static final int VIDEOS = 400_000;
+  private static final int RUNS = 3;
+  private static final String[] WORDS = {
+      "cats", "dogs", "cooking", "travel", "music", "science", "games", "history", "cars",
+      "football", "painting", "coding", "gardening", "space", "fishing", "dance", "comedy",
+      "news", "fitness", "movies", "books", "birds", "trains", "weather", "robots",
+  };
+
+  public static void main(String[] args) throws Exception {
+    Path directory = Files.createTempDirectory("catalogs");
+    Path plain = directory.resolve("catalog.txt");
+    Path gzip = directory.resolve("catalog.txt.gz");
+    Path blocks = directory.resolve("catalog.vcb");
+    try {
+      try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(plain))) {
+        for (int i = 0; i < VIDEOS; i++) {
+          out.printf("Video about %s and %s | video_%07d | #tag%d , #topic%d , #all%n",
+              WORDS[i % WORDS.length], WORDS[i / WORDS.length % WORDS.length], i, i % 100,
+              i % 1000);
+        }
+      }
+      try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip), 1 << 16)) {
+        Files.copy(plain, out);
+      }
+      int blockCount = BlockCatalog.write(CatalogSource.of(plain), blocks,
+          BlockCatalog.BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+      System.err.printf("%d videos: plain %d MB, gzip %d MB, block catalog %d MB in %d blocks%n",
+          VIDEOS, Files.size(plain) >> 20, Files.size(gzip) >> 20, Files.size(blocks) >> 20,
+          blockCount);
+
+      int processors = Runtime.getRuntime().availableProcessors();
+      measure("plain", plain, 1);
+      measure("gzip", gzip, 1);
+      measure("blocks, 1 thread", blocks, 1);
+      if (processors > 1) {
+        measure("blocks, " + processors + " threads", blocks, processors);
+      }
+    } finally {
+      Files.deleteIfExists(plain);
+      Files.deleteIfExists(gzip);
+      Files.deleteIfExists(blocks);
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  private static void measure(String name, Path file, int threads) throws Exception {
+    long parse = best(file, threads, id -> false);
+    long load = best(file, threads, id -> true);
+    System.err.printf("%-20s decode + parse %5d ms, load into library %5d ms%n", name,
+        parse / 1_000_000, load / 1_000_000);
+  }
+
+  /** Returns the fastest of several loads, with the filter deciding which videos are kept. */
+  private static long best(Path file, int threads, Predicate<String> filter) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      VideoLibrary library = new VideoLibrary(CatalogSource.of(file), id -> false);
+      best = Math.min(best,
+          CatalogLoader.load(CatalogSource.of(file), library, filter, threads).elapsedNanos);
+    }
+    return best;
+  }
+}
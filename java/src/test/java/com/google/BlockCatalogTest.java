@@ -0,0 +1,109 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BlockCatalogTest {
+
+  @TempDir
+  Path directory;
+
+  private Path writeCatalog(int videos) throws IOException {
+    var text = new StringBuilder();
+    for (int i = 0; i < videos; i++) {
+      text.append("Video ").append(i).append(" | video_").append(i).append(" | #tag")
+          .append(i % 7).append('\n');
+      if (i % 100 == 0) {
+        text.append("not a video line\n");
+      }
+    }
+    var file = directory.resolve("catalog.txt");
+    Files.writeString(file, text);
+    return file;
+  }
+
+  @Test
+  public void testLoadsBlocksInParallelInCatalogOrder() throws Exception {
+    var plain = writeCatalog(5_000);
+    var blocks = directory.resolve("catalog.vcb");
+    var written = BlockCatalog.write(CatalogSource.of(plain), blocks, 4096,
+        Deflater.DEFAULT_COMPRESSION);
+
+    var library = new VideoLibrary(CatalogSource.of(plain), id -> false);
+    var summary = CatalogLoader.load(CatalogSource.of(blocks), library, id -> true, 4);
+
+    assertTrue(written > 10);
+    assertEquals(written, summary.parts);
+    assertEquals(5_000, summary.rows);
+    assertEquals(50, summary.malformedLines);
+    assertTrue(Files.size(blocks) < Files.size(plain) / 3);
+    for (int i = 0; i < 5_000; i++) {
+      assertEquals(i, library.getVideo("video_" + i).getIndex());
+    }
+    assertEquals(714, library.withTag("#tag3").cardinality());
+  }
+
+  @Test
+  public void testDetectsCorruptBlocks() throws Exception {
+    var blocks = directory.resolve("catalog.vcb");
+    var plain = writeCatalog(1_000);
+    BlockCatalog.write(CatalogSource.of(plain), blocks, 4096, Deflater.DEFAULT_COMPRESSION);
+    var bytes = Files.readAllBytes(blocks);
+    bytes[100] ^= 0x55;
+    Files.write(blocks, bytes);
+
+    var library = new VideoLibrary(CatalogSource.of(plain), id -> false);
+    assertThrows(IOException.class,
+        () -> CatalogLoader.load(CatalogSource.of(blocks), library, id -> true, 2));
+  }
+
+  @Test
+  public void testCorruptIndexIsAnIOException() throws Exception {
+    var blocks = directory.resolve("catalog.vcb");
+    BlockCatalog.write(CatalogSource.of(writeCatalog(1_000)), blocks, 4096,
+        Deflater.DEFAULT_COMPRESSION);
+    var bytes = Files.readAllBytes(blocks);
+    var trailer = ByteBuffer.wrap(bytes, bytes.length - 16, 12);
+    int count = 200_000_000;
+    trailer.putInt(count).putLong(bytes.length - 16 - (long) count * 20);
+    Files.write(blocks, bytes);
+
+    assertFalse(BlockCatalog.isBlockCatalog(blocks));
+    assertThrows(IOException.class, () -> BlockCatalog.parts(blocks));
+  }
+
+  @Test
+  public void testCorruptBlockEntryIsAnIOException() throws Exception {
+    var blocks = directory.resolve("catalog.vcb");
+    BlockCatalog.write(CatalogSource.of(writeCatalog(1_000)), blocks, 4096,
+        Deflater.DEFAULT_COMPRESSION);
+    var bytes = Files.readAllBytes(blocks);
+    var buffer = ByteBuffer.wrap(bytes);
+    long indexOffset = buffer.getLong(bytes.length - 12);
+    buffer.putInt((int) indexOffset + 8, -1);
+    Files.write(blocks, bytes);
+
+    assertTrue(BlockCatalog.isBlockCatalog(blocks));
+    assertThrows(IOException.class, () -> BlockCatalog.parts(blocks));
+  }
+
+  @Test
+  public void testTextStartingWithTheMagicIsNotABlockCatalog() throws Exception {
+    var file = directory.resolve("catalog.txt");
+    Files.writeString(file, "VCB1 Launch | launch_video_id | #space\n");
+
+    assertFalse(BlockCatalog.isBlockCatalog(file));
+    var library = new VideoLibrary(CatalogSource.of(file), id -> true);
+    assertEquals(1, library.size());
+  }
+}
@@ -0,0 +1,48 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+
+public class CaseInsensitiveMapTest {
+
+  @Test
+  public void testLookupIgnoresCase() {
+    var map = new CaseInsensitiveMap<String>();
+    assertNull(map.putIfAbsent("My_Playlist", "first"));
+    assertEquals("first", map.putIfAbsent("MY_PLAYLIST", "second"));
+
+    assertEquals("first", map.get("my_playlist"));
+    assertEquals(1, map.size());
+    assertEquals("first", map.remove("my_PLAYLIST"));
+    assertNull(map.get("My_Playlist"));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testLookupDoesNotDependOnDefaultLocale() {
+    var locale = Locale.getDefault();
+    try {
+      Locale.setDefault(new Locale("tr", "TR"));
+      var map = new CaseInsensitiveMap<String>();
+      map.putIfAbsent("TITLE", "value");
+      assertEquals("value", map.get("title"));
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void testMapGrows() {
+    var map = new CaseInsensitiveMap<Integer>();
+    for (int i = 0; i < 1000; i++) {
+      assertNull(map.putIfAbsent("Playlist" + i, i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, map.get("PLAYLIST" + i));
+    }
+    assertEquals(1000, map.values().size());
+  }
+}
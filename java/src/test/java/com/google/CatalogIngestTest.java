@@ -0,0 +1,122 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CatalogIngestTest {
+
+  private VideoLibrary videoLibrary;
+
+  @BeforeEach
+  public void setUp() {
+    videoLibrary = new VideoLibrary();
+  }
+
+  @Test
+  public void testIngestAppliesDeltas() throws Exception {
+    var deltas = "Cat Facts | cat_facts_video_id | #cat, #facts\n"
+        + "-funny_dogs_video_id\n"
+        + "Amazing Cats II | amazing_cats_video_id | #cat\n"
+        + "not a video line\n"
+        + "\n";
+    var summary = new CatalogIngest(videoLibrary, 2, 1).ingest(new StringReader(deltas));
+
+    assertEquals(3, summary.rows);
+    assertEquals(1, summary.malformedRows);
+    assertEquals(3, summary.batches);
+    assertEquals(5, videoLibrary.getVideos().size());
+    assertNull(videoLibrary.getVideo("funny_dogs_video_id"));
+    assertEquals("Amazing Cats II", videoLibrary.getVideo("amazing_cats_video_id").getTitle());
+    assertEquals(List.of("#cat", "#facts"),
+        videoLibrary.getVideo("cat_facts_video_id").getTags());
+  }
+
+  @Test
+  public void testIngestHandlesManyRows() throws Exception {
+    var deltas = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      deltas.append("Video ").append(i).append(" | video_").append(i).append(" | #bulk\n");
+    }
+    var summary = new CatalogIngest(videoLibrary, 256, 4)
+        .ingest(new StringReader(deltas.toString()));
+
+    assertEquals(10_000, summary.rows);
+    assertEquals(10_005, videoLibrary.getVideos().size());
+    assertEquals(10_000, videoLibrary.withTag("#bulk").cardinality());
+  }
+
+  @Test
+  public void testFailedApplyStopsStages() throws Exception {
+    var failing = new VideoLibrary() {
+      // Set once the catalog is loaded by the constructor.
+      boolean loaded = true;
+
+      @Override
+      void applyUpdates(List<CatalogIngest.Update> updates) {
+        if (loaded) {
+          throw new IllegalStateException("disk full");
+        }
+        super.applyUpdates(updates);
+      }
+    };
+    var deltas = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      deltas.append("Video ").append(i).append(" | video_").append(i).append(" | #bulk\n");
+    }
+    var ingest = new CatalogIngest(failing, 16, 1);
+
+    assertThrows(IllegalStateException.class,
+        () -> ingest.ingest(new StringReader(deltas.toString())));
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("catalog-ingest-")) {
+        thread.join(5_000);
+        assertFalse(thread.isAlive(), thread.getName() + " is still running");
+      }
+    }
+  }
+
+  @Test
+  public void testDashRemovesOnlyWithoutFields() {
+    var pool = new HashMap<String, String>();
+
+    assertTrue(CatalogIngest.parse(" -tips_id ", pool).isRemoval());
+    var put = CatalogIngest.parse("-10 Tips for Dogs | tips_id | #dog", pool);
+    assertFalse(put.isRemoval());
+    assertEquals("-10 Tips for Dogs", put.getTitle());
+  }
+
+  @Test
+  public void testUpdatesAreAnalyzedBeforeTheyAreApplied() {
+    var line = "Cr\u00e8me Br\u00fbl\u00e9e Cr\u00e8me | creme_id | #D\u00c9SSERT";
+    var update = CatalogIngest.parse(line, new HashMap<>()).analyzedBy(videoLibrary);
+
+    assertEquals("creme brulee creme", update.getAnalysis().title);
+    assertEquals(List.of("creme", "brulee"), update.getAnalysis().titleWords);
+    assertEquals(List.of("#dessert"), update.getAnalysis().tags);
+    assertNull(CatalogIngest.parse("-creme_id", new HashMap<>()).analyzedBy(videoLibrary)
+        .getAnalysis());
+
+    videoLibrary.applyUpdates(List.of(update));
+    assertEquals("creme_id", videoLibrary.getVideo(videoLibrary.withTag("#dessert").nextSetBit(0))
+        .getVideoId());
+  }
+
+  @Test
+  public void testParseSharesTags() {
+    var pool = new HashMap<String, String>();
+    var first = CatalogIngest.parse("A | a | #cat", pool);
+    var second = CatalogIngest.parse("B | b |  #cat ", pool);
+
+    assertSame(first.getTags().get(0), second.getTags().get(0));
+  }
+}
@@ -0,0 +1,96 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogLoaderTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testLoadsBundledCatalogFromClasspath() {
+    var library = new VideoLibrary();
+
+    assertEquals(5, library.size());
+    assertEquals(5, library.loadSummary().rows);
+    assertEquals(0, library.loadSummary().malformedLines);
+  }
+
+  @Test
+  public void testLoadsFileAndCountsMalformedLines() throws Exception {
+    var file = directory.resolve("catalog.txt");
+    Files.writeString(file, "Cat Facts | cat_facts_video_id | #cat, #facts\n"
+        + "not a video line\n"
+        + "\n"
+        + "Dog Facts | dog_facts_video_id\n");
+
+    var library = new VideoLibrary(CatalogSource.of(file), id -> true);
+
+    assertEquals(2, library.size());
+    assertEquals(List.of("#cat", "#facts"), library.getVideo("cat_facts_video_id").getTags());
+    assertEquals(2, library.loadSummary().rows);
+    assertEquals(1, library.loadSummary().malformedLines);
+  }
+
+  @Test
+  public void testTitleStartingWithDashIsAVideo() throws Exception {
+    var file = directory.resolve("catalog.txt");
+    Files.writeString(file, "-10 Tips for Dogs | tips_id | #dog\n"
+        + "-tips_id\n");
+
+    var library = new VideoLibrary(CatalogSource.of(file), id -> true);
+
+    assertEquals(1, library.size());
+    assertEquals("-10 Tips for Dogs", library.getVideo("tips_id").getTitle());
+    assertEquals(1, library.loadSummary().malformedLines);
+  }
+
+  @Test
+  public void testLoadsDirectoryOfPlainAndGzipParts() throws Exception {
+    Files.writeString(directory.resolve("part-0.txt"), "Cat Facts | cat_facts_video_id\n");
+    try (OutputStream out =
+        new GZIPOutputStream(Files.newOutputStream(directory.resolve("part-1")))) {
+      out.write("Dog Facts | dog_facts_video_id | #dog\n".getBytes(StandardCharsets.UTF_8));
+    }
+    Files.writeString(directory.resolve(".hidden"), "Ghost | ghost_video_id\n");
+
+    var library = new VideoLibrary(CatalogSource.of(directory), id -> !id.startsWith("cat"));
+
+    assertEquals(1, library.size());
+    assertNotNull(library.getVideo("dog_facts_video_id"));
+    assertEquals(2, library.loadSummary().parts);
+    assertTrue(library.loadSummary().toString().startsWith("Loaded 1 rows from "));
+  }
+
+  @Test
+  public void testRejectsZstdCatalog() throws Exception {
+    var file = directory.resolve("catalog.zst");
+    Files.write(file, new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd, 0, 0});
+
+    assertThrows(IOException.class,
+        () -> CatalogLoader.load(CatalogSource.of(file), new VideoLibrary(), id -> true));
+  }
+
+  @Test
+  public void testMissingCatalogLeavesLibraryEmpty() {
+    var library = new VideoLibrary(CatalogSource.of(directory.resolve("missing.txt")),
+        id -> true);
+
+    assertEquals(0, library.size());
+    assertNull(library.loadSummary());
+  }
+}
@@ -0,0 +1,110 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class CommandMetricsTest extends TestBase {
+
+  private long countOf(String verb, boolean errors) {
+    var stats = CommandMetrics.global().getStats(verb);
+    if (stats == null) {
+      return 0;
+    }
+    return errors ? stats.errors.sum() : stats.count.sum();
+  }
+
+  @Test
+  public void testCommandsAreCountedWithErrors() {
+    var parser = new CommandParser(videoPlayer);
+    var plays = countOf("PLAY", false);
+    var playErrors = countOf("PLAY", true);
+
+    parser.executeCommand(Arrays.asList("PLAY", "amazing_cats_video_id"));
+    parser.executeCommand(Arrays.asList("play", "does_not_exist"));
+    parser.executeCommand(Arrays.asList("PLAY"));
+
+    assertEquals(plays + 3, countOf("PLAY", false));
+    assertEquals(playErrors + 2, countOf("PLAY", true));
+  }
+
+  @Test
+  public void testWarmUpIsNotCountedOrPrinted() {
+    var commands = CommandMetrics.global().getCommandCount();
+    var out = System.out;
+
+    StartupWarmup.warmUp();
+
+    assertEquals(commands, CommandMetrics.global().getCommandCount());
+    assertEquals(out, System.out);
+    assertEquals("", outputStream.toString());
+  }
+
+  @Test
+  public void testUnknownCommandsShareOneVerb() {
+    var parser = new CommandParser(videoPlayer);
+    var invalid = countOf("INVALID", false);
+
+    parser.executeCommand(Arrays.asList("FOO"));
+    parser.executeCommand(Arrays.asList("BAR"));
+
+    assertEquals(invalid + 2, countOf("INVALID", false));
+    assertEquals(null, CommandMetrics.global().getStats("FOO"));
+  }
+
+  @Test
+  public void testResultSizesAreRecorded() {
+    var parser = new CommandParser(videoPlayer);
+    parser.executeCommand(Arrays.asList("SHOW_ALL_VIDEOS"));
+    parser.executeCommand(Arrays.asList("METRICS"));
+
+    assertTrue(CommandMetrics.global().getStats("SHOW_ALL_VIDEOS").results.sum() >= 5);
+    assertThat(outputStream.toString(), containsString("SHOW_ALL_VIDEOS: count="));
+  }
+
+  @Test
+  public void testPausedTimeIsNotCounted() throws Exception {
+    var metrics = new CommandMetrics();
+    metrics.start("SEARCH_VIDEOS");
+    CommandMetrics.pauseTimer();
+    Thread.sleep(200);
+    CommandMetrics.resumeTimer();
+    metrics.stop();
+
+    assertTrue(metrics.getStats("SEARCH_VIDEOS").latencyNanos.percentile(100) < 100_000_000L);
+  }
+
+  @Test
+  public void testRegisteringTwiceIsHarmless() {
+    CommandMetrics.global().registerMBean();
+    CommandMetrics.global().registerMBean();
+
+    assertEquals("", outputStream.toString());
+  }
+
+  @Test
+  public void testHistogramBucketsCoverValues() {
+    var values = new long[] {0, 1, 31, 32, 33, 1000, 123_456_789L, Long.MAX_VALUE};
+    for (var value : values) {
+      var bucket = LatencyHistogram.bucketOf(value);
+      assertTrue(LatencyHistogram.highestValueOf(bucket) >= value);
+      assertTrue(bucket == 0 || LatencyHistogram.highestValueOf(bucket - 1) < value);
+    }
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    var histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1000);
+    }
+    assertEquals(100, histogram.count());
+    var p50 = histogram.percentile(50);
+    assertTrue(p50 >= 50_000 && p50 < 54_000, String.valueOf(p50));
+    assertTrue(histogram.percentile(100) >= 100_000);
+  }
+}
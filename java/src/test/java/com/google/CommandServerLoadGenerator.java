@@ -0,0 +1,92 @@
+package com.google;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput and latency of {@link CommandServer}. Each client connection keeps up
+ * to a fixed number of requests in flight and times every request from send to response. Not
+ * run by the test suite; see the README for how to run benchmarks.
+ *
+ * <p>Arguments: {@code [host:port] [connections] [requests per connection] [pipeline depth]}.
+ * Without a server address, a server over the default library is started in this process.
+ */
+public class CommandServerLoadGenerator {
+
+  private static final String[] COMMANDS = {
+      "PLAY amazing_cats_video_id", "SHOW_PLAYING", "SEARCH_VIDEOS_WITH_TAG #cat",
+      "QUERY_VIDEOS tag:#animal AND NOT flagged", "SUGGEST ca", "STOP",
+  };
+
+  public static void main(String[] args) throws Exception {
+    String host = "localhost";
+    int port = 0;
+    int argument = 0;
+    if (args.length > 0 && args[0].contains(":")) {
+      String[] address = args[argument++].split(":");
+      host = address[0];
+      port = Integer.parseInt(address[1]);
+    }
+    int connections = args.length > argument ? Integer.parseInt(args[argument++]) : 8;
+    int requests = args.length > argument ? Integer.parseInt(args[argument++]) : 100_000;
+    int depth = args.length > argument ? Integer.parseInt(args[argument]) : 32;
+
+    CommandServer server = null;
+    if (port == 0) {
+      server = new CommandServer(VideoLibrary.shared(), new VideoFlags(),
+          new PlaybackHistory(1024), new InetSocketAddress("localhost", 0),
+          Runtime.getRuntime().availableProcessors());
+      port = server.port();
+    }
+
+    for (int round = 0; round < 3; round++) {
+      LatencyHistogram latencies = new LatencyHistogram();
+      AtomicLong failures = new AtomicLong();
+      List<Thread> clients = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int c = 0; c < connections; c++) {
+        String clientHost = host;
+        int clientPort = port;
+        Thread client = new Thread(() -> {
+          try (CommandClient connection = new CommandClient(clientHost, clientPort)) {
+            long[] sentAt = new long[depth];
+            int sent = 0;
+            int received = 0;
+            while (received < requests) {
+              while (sent < requests && sent - received < depth) {
+                sentAt[sent % depth] = System.nanoTime();
+                connection.send(sent, COMMANDS[sent % COMMANDS.length]);
+                sent++;
+              }
+              connection.flush();
+              CommandClient.Response response = connection.receive();
+              latencies.record(System.nanoTime() - sentAt[response.id % depth]);
+              if (response.status != WireProtocol.OK) {
+                failures.incrementAndGet();
+              }
+              received++;
+            }
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+        client.start();
+        clients.add(client);
+      }
+      for (Thread client : clients) {
+        client.join();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      long total = (long) connections * requests;
+      System.err.printf("%d connections, depth %d: %.0f requests/sec, p50 %.1f us, "
+              + "p99 %.1f us, p99.9 %.1f us, %d failed%n", connections, depth, total / seconds,
+          latencies.percentile(50) / 1e3, latencies.percentile(99) / 1e3,
+          latencies.percentile(99.9) / 1e3, failures.get());
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CommandServerTest extends TestBase {
+
+  private CommandServer server;
+
+  @BeforeEach
+  public void startServer() throws Exception {
+    server = new CommandServer(VideoLibrary.shared(), new VideoFlags(), new PlaybackHistory(16),
+        new InetSocketAddress("localhost", 0), 2);
+  }
+
+  @AfterEach
+  public void stopServer() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void testPipelinedRequestsAreAnsweredInOrder() throws Exception {
+    try (var client = new CommandClient("localhost", server.port())) {
+      client.send(7, " NUMBER_OF_VIDEOS\n");
+      client.send(8, "PLAY amazing_cats_video_id");
+      client.send(9, "SHOW_PLAYING");
+      client.send(10, "SEARCH_VIDEOS cat");
+      client.flush();
+
+      var first = client.receive();
+      assertEquals(7, first.id);
+      assertEquals(WireProtocol.OK, first.status);
+      assertThat(first.output, containsString("5 videos in the library"));
+      assertThat(client.receive().output, containsString("Playing video: Amazing Cats"));
+      var playing = client.receive();
+      assertEquals(9, playing.id);
+      assertThat(playing.output, containsString("Currently playing: Amazing Cats"));
+      var search = client.receive();
+      assertEquals(10, search.id);
+      assertThat(search.output, containsString("2) Another Cat Video"));
+    }
+    assertEquals("", outputStream.toString());
+  }
+
+  @Test
+  public void testConnectionsAreSeparateSessionsSharingFlags() throws Exception {
+    try (var alice = new CommandClient("localhost", server.port());
+        var bob = new CommandClient("localhost", server.port())) {
+      alice.send(1, "PLAY funny_dogs_video_id");
+      alice.flush();
+      alice.receive();
+      bob.send(1, "SHOW_PLAYING");
+      bob.send(2, "FLAG_VIDEO amazing_cats_video_id");
+      bob.flush();
+      assertThat(bob.receive().output, containsString("No video is currently playing"));
+      bob.receive();
+      alice.send(2, "PLAY amazing_cats_video_id");
+      alice.flush();
+
+      var refused = alice.receive();
+      assertEquals(2, refused.id);
+      assertThat(refused.output, containsString("Cannot play video: Video is currently flagged"));
+    }
+  }
+
+  @Test
+  public void testUnreadResponsesStopReadingRequests() throws Exception {
+    var handled = new AtomicInteger();
+    var response = "x".repeat(10_000);
+    int requests = 4 * CommandServer.MAX_IN_FLIGHT;
+    try (var slowServer = new CommandServer(new InetSocketAddress("localhost", 0), 1,
+            () -> request -> {
+              handled.incrementAndGet();
+              return response;
+            });
+        var client = new CommandClient("localhost", slowServer.port())) {
+      for (int id = 0; id < requests; id++) {
+        client.send(id, "PING");
+      }
+      client.flush();
+      // Wait until the server stops making progress while the client reads nothing.
+      int before;
+      do {
+        before = handled.get();
+        Thread.sleep(200);
+      } while (handled.get() != before);
+      assertThat(handled.get(), lessThan(requests));
+
+      for (int id = 0; id < requests; id++) {
+        assertEquals(id, client.receive().id);
+      }
+      assertEquals(requests, handled.get());
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HttpApiTest extends TestBase {
+
+  @TempDir
+  Path spillDirectory;
+
+  private HttpApi api;
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @BeforeEach
+  public void startApi() throws Exception {
+    var flags = new VideoFlags();
+    var history = new PlaybackHistory(16);
+    var sessions = new SessionManager(VideoLibrary.shared(), flags, history, spillDirectory, 4);
+    api = new HttpApi(VideoLibrary.shared(), flags, sessions,
+        new InetSocketAddress("localhost", 0));
+  }
+
+  @AfterEach
+  public void stopApi() {
+    api.close();
+  }
+
+  private HttpResponse<String> send(String method, String path) throws Exception {
+    var request = HttpRequest.newBuilder(URI.create("http://localhost:" + api.port() + path))
+        .method(method, HttpRequest.BodyPublishers.noBody())
+        .build();
+    return client.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void testListVideosStreamsNdjsonInTitleOrder() throws Exception {
+    send("POST", "/videos/nothing_video_id/flag?reason=dont_like");
+    var response = send("GET", "/videos");
+
+    assertEquals(200, response.statusCode());
+    var lines = response.body().split("\n");
+    assertEquals(5, lines.length, response.body());
+    assertEquals("{\"id\":\"amazing_cats_video_id\",\"title\":\"Amazing Cats\","
+        + "\"tags\":[\"#cat\",\"#animal\"]}", lines[0]);
+    assertEquals("{\"id\":\"nothing_video_id\",\"title\":\"Video about nothing\","
+        + "\"tags\":[],\"flagged\":\"dont_like\"}", lines[4]);
+  }
+
+  @Test
+  public void testSearchTagAndQueryListings() throws Exception {
+    send("POST", "/videos/another_cat_video_id/flag");
+
+    assertEquals(1, send("GET", "/videos?search=cat").body().split("\n").length);
+    assertThat(send("GET", "/videos?tag=%23dog").body(), containsString("Funny Dogs"));
+    assertEquals("", send("GET", "/videos?query=tag:%23google+AND+flagged").body());
+    var invalid = send("GET", "/videos?query=tag:");
+    assertEquals(400, invalid.statusCode());
+    assertThat(invalid.body(), containsString("Cannot run query"));
+  }
+
+  @Test
+  public void testPlaylistOperations() throws Exception {
+    assertEquals(200, send("PUT", "/playlists/My_Cats?user=alice").statusCode());
+    var added = send("PUT", "/playlists/my_cats/videos/amazing_cats_video_id?user=alice");
+    assertThat(added.body(), containsString("Added video to my_cats: Amazing Cats"));
+    assertEquals(409,
+        send("PUT", "/playlists/my_cats/videos/amazing_cats_video_id?user=alice").statusCode());
+    assertEquals(404, send("PUT", "/playlists/my_cats/videos/nope?user=alice").statusCode());
+
+    assertEquals("[\"My_Cats\"]", send("GET", "/playlists?user=alice").body());
+    assertEquals("[]", send("GET", "/playlists?user=bob").body());
+    assertThat(send("GET", "/playlists/MY_CATS?user=alice").body(),
+        containsString("\"title\":\"Amazing Cats\""));
+    assertEquals(404, send("GET", "/playlists/my_cats?user=bob").statusCode());
+    assertEquals(200, send("DELETE", "/playlists/my_cats?user=alice").statusCode());
+    assertEquals(404, send("GET", "/videos/unknown").statusCode());
+  }
+
+  @Test
+  public void testStatusComesFromTheOutcomeNotTheMessage() throws Exception {
+    var playlist = "/playlists/does%20not%20exist";
+    assertEquals(200, send("PUT", playlist + "?user=alice").statusCode());
+    send("PUT", playlist + "/videos/amazing_cats_video_id?user=alice");
+    var again = send("PUT", playlist + "/videos/amazing_cats_video_id?user=alice");
+
+    assertEquals(409, again.statusCode());
+    assertThat(again.body(), containsString("Video already added"));
+    assertEquals(409, send("POST", "/videos/funny_dogs_video_id/allow").statusCode());
+    assertEquals(404, send("POST", "/videos/unknown/flag").statusCode());
+  }
+
+  @Test
+  public void testPathsThatOnlyStartWithAContextAreNotFound() throws Exception {
+    assertEquals(404, send("GET", "/videosamazing_cats_video_id").statusCode());
+    assertEquals(404, send("GET", "/videos_extra/amazing_cats_video_id").statusCode());
+    assertEquals(404, send("PUT", "/playlistsXYZ?user=alice").statusCode());
+    assertEquals("[]", send("GET", "/playlists?user=alice").body());
+    assertEquals(200, send("GET", "/videos/").statusCode());
+  }
+}
@@ -99,6 +99,43 @@ public class Part2Test extends TestBase {
     assertThat(lines[4], containsString("my_playlist"));
   }
 
+  @Test
+  public void testShowPlaylistsWithPrefixAndLimit() {
+    videoPlayer.createPlaylist("My_Cats");
+    videoPlayer.createPlaylist("my_dogs");
+    videoPlayer.createPlaylist("my_birds");
+    videoPlayer.createPlaylist("other");
+    videoPlayer.showPlaylists("MY_", null, 2);
+
+    var lines = getOutputLines();
+    assertEquals(8, lines.length, outputStream.toString());
+    assertThat(lines[4], containsString("Showing all playlists:"));
+    assertThat(lines[5], containsString("my_birds"));
+    assertThat(lines[6], containsString("My_Cats"));
+    assertThat(lines[7], containsString("More playlists available after: My_Cats"));
+
+    videoPlayer.showPlaylists("MY_", "My_Cats", 2);
+    lines = getOutputLines();
+    assertEquals(10, lines.length, outputStream.toString());
+    assertThat(lines[9], containsString("my_dogs"));
+  }
+
+  @Test
+  public void testShowPlaylistsAfter() {
+    videoPlayer.createPlaylist("a_list");
+    videoPlayer.createPlaylist("b_list");
+    videoPlayer.deletePlaylist("b_list");
+    videoPlayer.createPlaylist("c_list");
+    videoPlayer.showPlaylists(null, "A_LIST", 0);
+    videoPlayer.showPlaylists("z", null, 0);
+
+    var lines = getOutputLines();
+    assertEquals(7, lines.length, outputStream.toString());
+    assertThat(lines[4], containsString("Showing all playlists:"));
+    assertThat(lines[5], containsString("c_list"));
+    assertThat(lines[6], containsString("No matching playlists"));
+  }
+
   @Test
   public void testShowPlaylist() {
     videoPlayer.createPlaylist("my_playlist");
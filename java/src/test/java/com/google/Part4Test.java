@@ -4,6 +4,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.util.Arrays;
 import org.junit.jupiter.api.Test;
 
 public class Part4Test extends TestBase {
@@ -56,6 +57,26 @@ public class Part4Test extends TestBase {
         containsString("Cannot play video: Video is currently flagged (reason: Not supplied)"));
   }
 
+  @Test
+  public void testFlagVideosPlayPopularRandom() {
+    videoPlayer.playVideo("amazing_cats_video_id");
+    videoPlayer.playPopularRandomVideo();
+    videoPlayer.flagVideo("funny_dogs_video_id");
+    videoPlayer.flagVideo("amazing_cats_video_id");
+    videoPlayer.flagVideo("another_cat_video_id");
+    videoPlayer.flagVideo("life_at_google_video_id");
+    outputStream.reset();
+    for (int i = 0; i < 10; i++) {
+      videoPlayer.playPopularRandomVideo();
+    }
+    var plays = Arrays.stream(getOutputLines()).filter(l -> l.startsWith("Playing video"));
+    assertEquals(10, plays.filter(l -> l.equals("Playing video: Video about nothing")).count());
+    videoPlayer.flagVideo("nothing_video_id");
+    outputStream.reset();
+    videoPlayer.playPopularRandomVideo();
+    assertThat(outputStream.toString(), containsString("No videos available"));
+  }
+
   @Test
   public void testFlagVideosPlayRandom() {
     videoPlayer.flagVideo("funny_dogs_video_id");
@@ -278,4 +299,53 @@ public class Part4Test extends TestBase {
     assertThat(lines[7],
         containsString("Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
   }
+
+  @Test
+  public void testPlayersShareInjectedFlags() {
+    var flags = new VideoFlags();
+    var moderator = new VideoPlayer(VideoLibrary.shared(), flags, new PlaybackHistory(16));
+    var viewer = new VideoPlayer(VideoLibrary.shared(), flags, new PlaybackHistory(16));
+    moderator.flagVideo("amazing_cats_video_id", "dont_like_cats");
+    viewer.playVideo("amazing_cats_video_id");
+    videoPlayer.playVideo("amazing_cats_video_id");
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[1],
+        containsString("Cannot play video: Video is currently flagged (reason: dont_like_cats)"));
+    assertThat(lines[2], containsString("Playing video: Amazing Cats"));
+  }
+
+  @Test
+  public void testFlagByTagStopsPlayingVideoOnce() {
+    videoPlayer.playVideo("amazing_cats_video_id");
+    long version = videoPlayer.flags.version();
+    videoPlayer.flagVideosWithTag("#CAT", "dont_like_cats");
+    videoPlayer.flagVideosWithTag("#cat", "dont_like_cats");
+    videoPlayer.showPlaying();
+
+    var lines = getOutputLines();
+    assertEquals(5, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("Stopping video: Amazing Cats"));
+    assertThat(lines[2], containsString("Successfully flagged 2 videos (reason: dont_like_cats)"));
+    assertThat(lines[3], containsString("No videos to flag for #cat"));
+    assertThat(lines[4], containsString("No video is currently playing"));
+    assertEquals(version + 1, videoPlayer.flags.version());
+  }
+
+  @Test
+  public void testFlagByQueryAndAllowBulk() {
+    videoPlayer.flagVideosMatching("tag:#animal AND NOT title:dogs", "Matched");
+    videoPlayer.flagVideosMatching("tag:", "Matched");
+    videoPlayer.flagVideo("life_at_google_video_id");
+    outputStream.reset();
+    videoPlayer.allowVideosMatching("flagged AND tag:#animal");
+    videoPlayer.allowVideosMatching("tag:#cat");
+
+    var lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Successfully removed flag from 2 videos"));
+    assertThat(lines[1], containsString("No flagged videos for tag:#cat"));
+    assertEquals(1, videoPlayer.flags.flagged().cardinality());
+  }
 }
@@ -0,0 +1,147 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PlaybackHistoryTest extends TestBase {
+
+  @TempDir
+  Path logDirectory;
+
+  @Test
+  public void testMostPlayed() {
+    videoPlayer.playVideo("amazing_cats_video_id");
+    videoPlayer.playVideo("funny_dogs_video_id");
+    videoPlayer.playVideo("amazing_cats_video_id");
+    outputStream.reset();
+    videoPlayer.showMostPlayed(5);
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Most played videos:"));
+    assertThat(lines[1], containsString("1) Amazing Cats (amazing_cats_video_id) "
+        + "[#cat #animal] - 2 plays"));
+    assertThat(lines[2], containsString("2) Funny Dogs"));
+  }
+
+  @Test
+  public void testRecentlyPlayed() {
+    videoPlayer.playVideo("amazing_cats_video_id");
+    videoPlayer.playVideo("funny_dogs_video_id");
+    videoPlayer.playVideo("amazing_cats_video_id");
+    outputStream.reset();
+    videoPlayer.showRecentlyPlayed(5);
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("1) Amazing Cats"));
+    assertThat(lines[2], containsString("2) Funny Dogs"));
+  }
+
+  @Test
+  public void testNothingPlayed() {
+    videoPlayer.showMostPlayed(3);
+    assertThat(outputStream.toString(), containsString("No videos have been played yet"));
+  }
+
+  @Test
+  public void testRecordingDrainsWithoutAWriter() {
+    var history = new PlaybackHistory(4);
+    var video = VideoLibrary.shared().getVideo("funny_dogs_video_id");
+    for (int i = 0; i < 10; i++) {
+      history.record(PlaybackHistory.EventType.PLAY, video);
+    }
+    assertEquals(List.of(video.getIndex()), history.mostPlayed(3));
+    assertEquals(0, history.lostEvents());
+    assertEquals(10, history.playCount(video));
+  }
+
+  @Test
+  public void testRankingStaysIncrementalPastTheBuffer() {
+    var history = new PlaybackHistory(1024);
+    var cats = VideoLibrary.shared().getVideo("amazing_cats_video_id");
+    var dogs = VideoLibrary.shared().getVideo("funny_dogs_video_id");
+    for (int i = 0; i < 3000; i++) {
+      history.record(PlaybackHistory.EventType.PLAY, cats);
+    }
+    for (int i = 0; i < 1100; i++) {
+      history.record(PlaybackHistory.EventType.PLAY, dogs);
+    }
+
+    assertEquals(List.of(cats.getIndex(), dogs.getIndex()), history.mostPlayed(2));
+    assertEquals(0, history.lostEvents());
+  }
+
+  @Test
+  public void testLogDirectoryComesFromProperties() throws Exception {
+    var video = VideoLibrary.shared().getVideo("funny_dogs_video_id");
+    System.setProperty("playback.log", logDirectory.toString());
+    try (var history = PlaybackHistory.fromProperties(16)) {
+      history.record(PlaybackHistory.EventType.PLAY, video);
+    } finally {
+      System.clearProperty("playback.log");
+    }
+    assertEquals(13, Files.size(logDirectory.resolve("playback-000000.log")));
+  }
+
+  @Test
+  public void testConcurrentPlaysAreAllRankedAndLogged() throws Exception {
+    var cats = VideoLibrary.shared().getVideo("amazing_cats_video_id");
+    var dogs = VideoLibrary.shared().getVideo("funny_dogs_video_id");
+    try (var history = new PlaybackHistory(1 << 16, logDirectory)) {
+      var players = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++) {
+        var video = t == 0 ? dogs : cats;
+        players.add(new Thread(() -> {
+          for (int i = 0; i < 5000; i++) {
+            history.record(PlaybackHistory.EventType.PLAY, video);
+          }
+        }));
+      }
+      players.forEach(Thread::start);
+      for (var player : players) {
+        player.join();
+      }
+
+      assertEquals(List.of(cats.getIndex(), dogs.getIndex()), history.mostPlayed(2));
+      assertEquals(0, history.lostEvents());
+      assertEquals(15_000, history.playCount(cats));
+      assertEquals(20_000, history.totalPlays());
+    }
+    assertEquals(20_000 * 13, Files.size(logDirectory.resolve("playback-000000.log")));
+  }
+
+  @Test
+  public void testPopularitySamplerIsSharedPerLibraryAndFlags() {
+    var history = new PlaybackHistory(16);
+    var library = VideoLibrary.shared();
+    var flags = new VideoFlags();
+
+    assertSame(history.popularitySampler(library, flags),
+        history.popularitySampler(library, flags));
+    assertNotSame(history.popularitySampler(library, flags),
+        history.popularitySampler(library, new VideoFlags()));
+  }
+
+  @Test
+  public void testEventsAreWrittenToSegmentLog() throws Exception {
+    var video = VideoLibrary.shared().getVideo("funny_dogs_video_id");
+    try (var history = new PlaybackHistory(16, logDirectory)) {
+      history.record(PlaybackHistory.EventType.PLAY, video);
+      history.record(PlaybackHistory.EventType.PAUSE, video);
+      history.record(PlaybackHistory.EventType.STOP, video);
+    }
+    var segment = logDirectory.resolve("playback-000000.log");
+    assertEquals(3 * 13, Files.size(segment));
+  }
+}
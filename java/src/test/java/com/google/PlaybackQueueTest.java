@@ -0,0 +1,88 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PlaybackQueueTest extends TestBase {
+
+  @Test
+  public void testShufflePlaysEveryVideoOnce() {
+    var library = new VideoLibrary();
+    var playlist = new VideoPlaylist("big");
+    for (int i = 0; i < 1000; i++) {
+      library.addVideo("Video " + i, "video_" + i, List.of());
+      playlist.addVideo(library.getVideo("video_" + i));
+    }
+    var flags = new VideoFlags();
+    flags.flag(library.getVideo("video_7"), "Not supplied");
+    var queue = new PlaybackQueue(playlist, new Random(42));
+
+    BitSet seen = new BitSet();
+    Video previous = null;
+    Video video;
+    int played = 0;
+    while ((video = queue.next(library, flags)) != null) {
+      assertFalse(seen.get(video.getIndex()), video.getTitle());
+      seen.set(video.getIndex());
+      played++;
+      previous = video;
+    }
+    assertEquals(999, played);
+    assertFalse(seen.get(library.getVideo("video_7").getIndex()));
+    assertEquals(previous, queue.previous(library, flags));
+  }
+
+  @Test
+  public void testPlayPlaylistNextAndPrevious() {
+    videoPlayer.createPlaylist("my_playlist");
+    videoPlayer.addVideoToPlaylist("my_playlist", "amazing_cats_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "funny_dogs_video_id");
+    videoPlayer.addVideoToPlaylist("my_playlist", "life_at_google_video_id");
+    videoPlayer.flagVideo("funny_dogs_video_id");
+    outputStream.reset();
+
+    videoPlayer.previousVideo();
+    videoPlayer.playPlaylist("MY_playlist", false);
+    videoPlayer.previousVideo();
+    videoPlayer.nextVideo();
+    videoPlayer.previousVideo();
+    videoPlayer.nextVideo();
+    videoPlayer.nextVideo();
+    videoPlayer.nextVideo();
+
+    var lines = getOutputLines();
+    assertEquals(13, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Cannot play previous video: No playlist is playing"));
+    assertThat(lines[1], containsString("Playing playlist: MY_playlist"));
+    assertThat(lines[2], containsString("Playing video: Amazing Cats"));
+    assertThat(lines[3], containsString(
+        "Cannot play previous video: Already at the start of my_playlist"));
+    assertThat(lines[4], containsString("Stopping video: Amazing Cats"));
+    assertThat(lines[5], containsString("Playing video: Life at Google"));
+    assertThat(lines[6], containsString("Stopping video: Life at Google"));
+    assertThat(lines[7], containsString("Playing video: Amazing Cats"));
+    assertThat(lines[9], containsString("Playing video: Life at Google"));
+    assertThat(lines[10], containsString("Stopping video: Life at Google"));
+    assertThat(lines[11], containsString("Reached the end of playlist: my_playlist"));
+    assertThat(lines[12], containsString("Cannot play next video: No playlist is playing"));
+  }
+
+  @Test
+  public void testPlayEmptyOrMissingPlaylist() {
+    videoPlayer.createPlaylist("empty");
+    outputStream.reset();
+    videoPlayer.playPlaylist("empty", true);
+    videoPlayer.playPlaylist("missing", false);
+
+    var lines = getOutputLines();
+    assertThat(lines[0], containsString("Cannot play playlist empty: No playable videos"));
+    assertThat(lines[1], containsString("Cannot play playlist missing: Playlist does not exist"));
+  }
+}
@@ -0,0 +1,74 @@
+package com.google;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the heap used by one million playlists stored as named lists of video references (the
+ * previous representation) and as {@link VideoPlaylist}s. Not run by the test suite; run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.google.PlaylistMemoryBenchmark}.
+ */
+public class PlaylistMemoryBenchmark {
+
+  private static final int PLAYLISTS = 1_000_000;
+  private static final int CATALOG = 100_000;
+
+  /** The previous playlist representation. */
+  private static class ReferencePlaylist {
+    final String name;
+    final List<Video> videos = new ArrayList<>();
+
+    ReferencePlaylist(String name) {
+      this.name = name;
+    }
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(42);
+    Video[] catalog = new Video[CATALOG];
+    for (int i = 0; i < CATALOG; i++) {
+      catalog[i] = new Video(i, "Video " + i, "video_" + i, List.of());
+    }
+    int[] sizes = new int[PLAYLISTS];
+    for (int i = 0; i < PLAYLISTS; i++) {
+      sizes[i] = random.nextInt(20);
+    }
+
+    long before = usedHeap();
+    List<ReferencePlaylist> lists = new ArrayList<>(PLAYLISTS);
+    for (int i = 0; i < PLAYLISTS; i++) {
+      ReferencePlaylist playlist = new ReferencePlaylist("playlist");
+      for (int j = 0; j < sizes[i]; j++) {
+        playlist.videos.add(catalog[(i * 31 + j * 17) % CATALOG]);
+      }
+      lists.add(playlist);
+    }
+    long referenceLists = usedHeap() - before;
+    lists = null;
+
+    before = usedHeap();
+    List<VideoPlaylist> playlists = new ArrayList<>(PLAYLISTS);
+    for (int i = 0; i < PLAYLISTS; i++) {
+      VideoPlaylist playlist = new VideoPlaylist("playlist");
+      for (int j = 0; j < sizes[i]; j++) {
+        playlist.addVideo(catalog[(i * 31 + j * 17) % CATALOG]);
+      }
+      playlists.add(playlist);
+    }
+    long indexArrays = usedHeap() - before;
+
+    System.out.printf("ArrayList<Video>: %d MB%n", referenceLists >> 20);
+    System.out.printf("VideoPlaylist:    %d MB (%d playlists kept)%n",
+        indexArrays >> 20, playlists.size());
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,74 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PostingListTest {
+
+  @Test
+  public void testAddRemoveAndContains() {
+    var postings = new PostingList();
+    assertTrue(postings.isEmpty());
+    assertTrue(postings.add(70_000));
+    assertTrue(postings.add(3));
+    assertFalse(postings.add(3));
+
+    assertTrue(postings.contains(3));
+    assertTrue(postings.contains(70_000));
+    assertFalse(postings.contains(4));
+    assertArrayEquals(new int[] {3, 70_000}, postings.toArray());
+
+    assertTrue(postings.remove(3));
+    assertFalse(postings.remove(3));
+    assertFalse(postings.remove(1_000_000));
+    assertEquals(1, postings.cardinality());
+    assertTrue(postings.remove(70_000));
+    assertTrue(postings.isEmpty());
+  }
+
+  @Test
+  public void testDenseGroupIsPromotedAndDemoted() {
+    var postings = new PostingList();
+    for (int i = 0; i < 10_000; i++) {
+      postings.add(i);
+    }
+    for (int i = 0; i < 9_900; i++) {
+      postings.remove(i);
+    }
+    postings.add(5);
+
+    assertEquals(101, postings.cardinality());
+    assertTrue(postings.contains(5));
+    assertFalse(postings.contains(6));
+    assertEquals(9_999, postings.toArray()[100]);
+  }
+
+  @Test
+  public void testMatchesBitSetAcrossArrayAndBitmapGroups() {
+    var random = new Random(42);
+    var postings = new PostingList();
+    var expected = new BitSet();
+    // Dense enough in the first groups to be promoted to bitmaps and demoted again.
+    for (int round = 0; round < 4; round++) {
+      for (int i = 0; i < 20_000; i++) {
+        int index = random.nextInt(3 * 65536);
+        boolean add = round % 2 == 0 || random.nextInt(4) == 0;
+        assertEquals(add ? !expected.get(index) : expected.get(index),
+            add ? postings.add(index) : postings.remove(index));
+        expected.set(index, add);
+      }
+      assertEquals(expected.cardinality(), postings.cardinality());
+      assertArrayEquals(expected.stream().toArray(), postings.toArray());
+
+      long[] words = new long[(3 * 65536) / Long.SIZE];
+      postings.orInto(words);
+      assertEquals(expected, BitSet.valueOf(words));
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RelatedVideosIndexTest extends TestBase {
+
+  @Test
+  public void testRelatedVideosAreRankedBySharedTags() {
+    videoPlayer.showRelatedVideos("amazing_cats_video_id");
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Here are the videos related to Amazing Cats:"));
+    assertThat(lines[1], containsString("1) Another Cat Video"));
+    assertThat(lines[2], containsString("2) Funny Dogs"));
+  }
+
+  @Test
+  public void testRelatedVideosSkipFlagged() {
+    videoPlayer.flagVideo("another_cat_video_id");
+    videoPlayer.showRelatedVideos("amazing_cats_video_id");
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[2], containsString("1) Funny Dogs"));
+  }
+
+  @Test
+  public void testRelatedVideosWithoutTagsOrVideo() {
+    videoPlayer.showRelatedVideos("nothing_video_id");
+    videoPlayer.showRelatedVideos("does_not_exist");
+
+    var lines = getOutputLines();
+    assertThat(lines[0], containsString("No related videos for Video about nothing"));
+    assertThat(lines[1], containsString("Cannot show related videos: Video does not exist"));
+  }
+
+  @Test
+  public void testEveryVideoIsRankedInTheBackground() throws Exception {
+    var library = new VideoLibrary();
+    var index = library.relatedVideos();
+
+    assertTrue(index.awaitPrecomputed(5, TimeUnit.SECONDS));
+    var related = index.relatedTo(library.getVideo("another_cat_video_id"), new VideoFlags(), 5);
+    assertEquals("Amazing Cats", related.get(0).getTitle());
+    assertEquals(2, related.size());
+  }
+
+  @Test
+  public void testIndexFollowsLibraryChanges() {
+    var library = new VideoLibrary();
+    var index = library.relatedVideos();
+    var flags = new VideoFlags();
+    var dogs = library.getVideo("funny_dogs_video_id");
+
+    library.addVideo("More Dogs", "more_dogs_video_id", List.of("#dog", "#animal"));
+    assertEquals("More Dogs", index.relatedTo(dogs, flags, 5).get(0).getTitle());
+
+    library.removeVideo("more_dogs_video_id");
+    library.updateVideo("Funny Cats", "amazing_cats_video_id", List.of("#dog", "#animal"));
+    assertEquals("Funny Cats", index.relatedTo(dogs, flags, 5).get(0).getTitle());
+    assertEquals(2, index.relatedTo(dogs, flags, 5).size());
+  }
+
+  @Test
+  public void testFlaggedBestMatchesDoNotStarveResults() {
+    var library = new VideoLibrary();
+    var flags = new VideoFlags();
+    var twins = new BitSet();
+    for (int i = 0; i < RelatedVideosIndex.TOP_K; i++) {
+      library.addVideo("Twin " + i, "twin_" + i, List.of("#dog", "#animal"));
+      twins.set(library.getVideo("twin_" + i).getIndex());
+    }
+    for (int i = 0; i < 5; i++) {
+      library.addVideo("Pup " + i, "pup_" + i, List.of("#dog"));
+    }
+    flags.flagAll(twins, "duplicate");
+
+    var related = library.relatedVideos()
+        .relatedTo(library.getVideo("funny_dogs_video_id"), flags, 5);
+    assertEquals(5, related.size());
+    assertThat(related.get(0).getTitle(), containsString("Pup"));
+  }
+}
@@ -0,0 +1,159 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ReplicationTest {
+
+  private ReplicatedNode primary;
+  private LogShipper shipper;
+
+  @BeforeEach
+  public void startPrimary() throws Exception {
+    primary = new ReplicatedNode(VideoLibrary.shared(), new VideoFlags(),
+        new PlaybackHistory(16), new MutationLog());
+    shipper = new LogShipper(primary.log(),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @AfterEach
+  public void stopPrimary() throws Exception {
+    shipper.close();
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 20_000;
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the replica");
+      Thread.sleep(20);
+    }
+  }
+
+  @Test
+  public void testReplicaAppliesMutationsInOrder() throws Exception {
+    var replicaNode = new ReplicatedNode(VideoLibrary.shared(), new VideoFlags(),
+        new PlaybackHistory(16), null);
+    try (var replica = replicaNode.follow(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), shipper.port()))) {
+      primary.execute("alice", "CREATE_PLAYLIST cats");
+      primary.execute("alice", "ADD_TO_PLAYLIST cats amazing_cats_video_id");
+      primary.execute("alice", "ADD_TO_PLAYLIST cats another_cat_video_id");
+      primary.execute("bob", "FLAG_VIDEO another_cat_video_id");
+      primary.execute("alice", "SHOW_PLAYLIST cats");
+      assertEquals(4, primary.log().lastSequence());
+
+      await(() -> replica.getAppliedSequence() == 4);
+      assertEquals(0, replica.getLagEntries());
+      String playlist = replicaNode.execute("alice", "SHOW_PLAYLIST cats");
+      assertThat(playlist, containsString("Amazing Cats"));
+      assertThat(playlist, containsString("Another Cat Video (another_cat_video_id) [#cat "
+          + "#animal] - FLAGGED (reason: Not supplied)"));
+      assertThat(replicaNode.execute("carol", "SEARCH_VIDEOS cat"),
+          not(containsString("Another Cat Video")));
+      assertThrows(IllegalStateException.class,
+          () -> replicaNode.execute("alice", "DELETE_PLAYLIST cats"));
+    }
+  }
+
+  @Test
+  public void testRestartedReplicaProcessCatchesUp() throws Exception {
+    primary.execute("alice", "CREATE_PLAYLIST cats");
+    primary.execute("alice", "ADD_TO_PLAYLIST cats amazing_cats_video_id");
+
+    Process replica = startReplica();
+    try (var client = connect(replica)) {
+      await(() -> status(client).contains("sequence 2 of 2"));
+      assertThat(request(client, "alice SHOW_PLAYLIST cats"), containsString("Amazing Cats"));
+    } finally {
+      replica.destroy();
+      replica.waitFor();
+    }
+
+    primary.execute("alice", "ADD_TO_PLAYLIST cats another_cat_video_id");
+    primary.execute("bob", "FLAG_VIDEO amazing_cats_video_id dont_like_cats");
+
+    replica = startReplica();
+    try (var client = connect(replica)) {
+      await(() -> status(client).contains("sequence 4 of 4, 0 entries"));
+      String playlist = request(client, "alice SHOW_PLAYLIST cats");
+      assertThat(playlist, containsString("Another Cat Video"));
+      assertThat(playlist, containsString("FLAGGED (reason: dont_like_cats)"));
+    } finally {
+      replica.destroy();
+    }
+  }
+
+  @Test
+  public void testReplicaResyncsWhenPrimaryRestartsWithANewLog() throws Exception {
+    var replicaNode = new ReplicatedNode(VideoLibrary.shared(), new VideoFlags(),
+        new PlaybackHistory(16), null);
+    int port = shipper.port();
+    try (var replica = replicaNode.follow(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+      primary.execute("alice", "CREATE_PLAYLIST cats");
+      primary.execute("alice", "ADD_TO_PLAYLIST cats amazing_cats_video_id");
+      primary.execute("bob", "FLAG_VIDEO funny_dogs_video_id");
+      await(() -> replica.getAppliedSequence() == 3);
+
+      shipper.close();
+      primary = new ReplicatedNode(VideoLibrary.shared(), new VideoFlags(),
+          new PlaybackHistory(16), new MutationLog());
+      primary.execute("alice", "CREATE_PLAYLIST dogs");
+      shipper = new LogShipper(primary.log(),
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+      await(() -> replica.getPrimarySequence() == 1 && replica.getAppliedSequence() == 1);
+      assertEquals(0, replica.getLagMillis());
+      String playlists = replicaNode.execute("alice", "SHOW_ALL_PLAYLISTS");
+      assertThat(playlists, containsString("dogs"));
+      assertThat(playlists, not(containsString("cats")));
+      assertThat(replicaNode.execute("carol", "SEARCH_VIDEOS_WITH_TAG #dog"),
+          containsString("Funny Dogs"));
+    }
+  }
+
+  private Process startReplica() throws Exception {
+    String classes = Path.of(ReplicatedNode.class.getProtectionDomain().getCodeSource()
+        .getLocation().toURI()).toString();
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    return new ProcessBuilder(java, "-cp", classes, ReplicatedNode.class.getName(), "replica",
+        "0", String.valueOf(shipper.port()))
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  private static CommandClient connect(Process replica) throws Exception {
+    String line = new BufferedReader(new InputStreamReader(replica.getInputStream())).readLine();
+    assertThat(line, containsString("Listening on port "));
+    return new CommandClient("localhost",
+        Integer.parseInt(line.substring("Listening on port ".length())));
+  }
+
+  private static String request(CommandClient client, String command) throws Exception {
+    client.send(0, command);
+    client.flush();
+    return client.receive().output;
+  }
+
+  private static String status(CommandClient client) {
+    try {
+      return request(client, "REPLICATION_STATUS");
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
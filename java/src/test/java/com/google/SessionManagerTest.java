@@ -0,0 +1,181 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SessionManagerTest extends TestBase {
+
+  @TempDir
+  Path spillDirectory;
+
+  private SessionManager newSessions(int maxResidentSessions) throws Exception {
+    return new SessionManager(VideoLibrary.shared(), new VideoFlags(), new PlaybackHistory(16),
+        spillDirectory, maxResidentSessions);
+  }
+
+  /** Leases and releases the session of the user, as a command would. */
+  private static void touch(SessionManager sessions, String userId) {
+    sessions.acquire(userId).close();
+  }
+
+  @Test
+  public void testResidentSessionIsReused() throws Exception {
+    var sessions = newSessions(2);
+    VideoPlayer first;
+    try (var lease = sessions.acquire("alice")) {
+      first = lease.player();
+    }
+    try (var lease = sessions.acquire("alice")) {
+      assertSame(first, lease.player());
+    }
+    assertEquals(1, sessions.residentSessions());
+  }
+
+  @Test
+  public void testIdleSessionIsSpilledAndRestored() throws Exception {
+    var sessions = newSessions(2);
+    try (var lease = sessions.acquire("alice")) {
+      var alice = lease.player();
+      alice.playVideo("amazing_cats_video_id");
+      alice.pauseVideo();
+      alice.createPlaylist("My_Cats");
+      alice.addVideoToPlaylist("my_cats", "another_cat_video_id");
+    }
+    touch(sessions, "bob");
+    touch(sessions, "carol/../dave");
+
+    assertEquals(2, sessions.residentSessions());
+    assertEquals(1, sessions.spilledSessions());
+
+    String output;
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().showPlaying();
+      lease.player().showPlaylist("MY_CATS");
+      output = lease.takeOutput();
+    }
+
+    var lines = output.split("\\r?\\n");
+    assertEquals(3, lines.length, output);
+    assertThat(lines[0], containsString("Currently playing: Amazing Cats "
+        + "(amazing_cats_video_id) [#cat #animal] - PAUSED"));
+    assertThat(lines[2], containsString("Another Cat Video"));
+    assertEquals(1, sessions.spilledSessions());
+    assertEquals(2, sessions.evictions());
+    assertEquals(1, sessions.restoreLatencyNanos().count());
+  }
+
+  @Test
+  public void testLeasedSessionIsNotSpilledAndOthersDoNotWait() throws Exception {
+    var sessions = newSessions(1);
+    try (var lease = sessions.acquire("alice")) {
+      CompletableFuture.runAsync(() -> {
+        touch(sessions, "bob");
+        touch(sessions, "carol");
+      }).get(5, TimeUnit.SECONDS);
+      lease.player().createPlaylist("kept");
+    }
+    touch(sessions, "bob");
+
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().showPlaylist("kept");
+      assertThat(lease.takeOutput(), containsString("No videos here yet"));
+    }
+  }
+
+  @Test
+  public void testLongUserIdIsSpilledAndRestored() throws Exception {
+    var sessions = newSessions(1);
+    var longId = "user-".repeat(100);
+    try (var lease = sessions.acquire(longId)) {
+      lease.player().createPlaylist("long");
+    }
+    touch(sessions, "bob");
+    assertEquals(1, sessions.spilledSessions());
+
+    try (var lease = sessions.acquire(longId)) {
+      lease.player().showPlaylist("long");
+      assertThat(lease.takeOutput(), containsString("Showing playlist: long"));
+    }
+  }
+
+  @Test
+  public void testCorruptSpillFileIsSetAside() throws Exception {
+    var sessions = newSessions(1);
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().createPlaylist("lost");
+    }
+    touch(sessions, "bob");
+    try (var files = Files.list(spillDirectory)) {
+      Files.write(files.findFirst().orElseThrow(), new byte[] {1, 2, 3});
+    }
+
+    assertThrows(UncheckedIOException.class, () -> sessions.acquire("alice"));
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().showPlaylist("lost");
+      assertThat(lease.takeOutput(), containsString("Playlist does not exist"));
+    }
+    assertEquals(1, sessions.failedRestores());
+    try (var files = Files.list(spillDirectory)) {
+      assertTrue(files.anyMatch(file -> file.toString().endsWith(".corrupt")));
+    }
+  }
+
+  @Test
+  public void testSpillFilesOfAnEarlierManagerAreCounted() throws Exception {
+    var earlier = newSessions(1);
+    try (var lease = earlier.acquire("alice")) {
+      lease.player().createPlaylist("kept");
+    }
+    touch(earlier, "bob");
+
+    var sessions = newSessions(1);
+    assertEquals(1, sessions.spilledSessions());
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().showPlaylist("kept");
+      assertThat(lease.takeOutput(), containsString("No videos here yet"));
+    }
+    assertEquals(0, sessions.spilledSessions());
+  }
+
+  @Test
+  public void testSessionThatCannotBeSpilledStaysResident() throws Exception {
+    var sessions = newSessions(1);
+    // A non-empty directory where alice's spill file would go can be neither written nor removed.
+    Path blocked = Files.createDirectories(spillDirectory.resolve("616c696365.session"));
+    Files.createFile(blocked.resolve("keep"));
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().createPlaylist("kept");
+    }
+
+    var errors = new ByteArrayOutputStream();
+    PrintStream stderr = System.err;
+    System.setErr(new PrintStream(errors));
+    try {
+      touch(sessions, "bob");
+    } finally {
+      System.setErr(stderr);
+    }
+
+    assertThat(errors.toString(), containsString("Couldn't spill session of alice"));
+    assertEquals(2, sessions.residentSessions());
+    assertEquals(0, sessions.evictions());
+    try (var lease = sessions.acquire("alice")) {
+      lease.player().showPlaylist("kept");
+      assertThat(lease.takeOutput(), containsString("No videos here yet"));
+    }
+  }
+}
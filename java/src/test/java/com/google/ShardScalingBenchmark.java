@@ -0,0 +1,54 @@
+package com.google;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Measures how the heap needed per process shrinks as a catalog is split across more
+ * {@link ShardServer} processes, and the latency of a scatter-gather search. Not run by the test
+ * suite; see the README for how to run benchmarks.
+ */
+public class ShardScalingBenchmark {
+
+  private static final int VIDEOS = 400_000;
+  private static final String[] WORDS = {
+      "cats", "dogs", "cooking", "travel", "music", "science", "games", "history", "cars",
+      "football", "painting", "coding", "gardening", "space", "fishing", "dance", "comedy",
+      "news", "fitness", "movies", "books", "birds", "trains", "weather", "robots",
+  };
+
+  public static void main(String[] args) throws Exception {
+    File file = File.createTempFile("catalog", ".txt");
+    file.deleteOnExit();
+    try (PrintWriter out = new PrintWriter(file)) {
+      for (int i = 0; i < VIDEOS; i++) {
+        out.printf("Video about %s and %s | video_%07d | #tag%d , #topic%d , #all%n",
+            WORDS[i % WORDS.length], WORDS[i / WORDS.length % WORDS.length], i, i % 100,
+            i % 1000);
+      }
+    }
+    for (int shards : new int[] {1, 2, 4}) {
+      try (ShardedCatalog catalog = ShardedCatalog.launch(shards, file, "-Xmx1g",
+          "-Dstartup.report=true")) {
+        List<ShardedCatalog.ShardStats> stats = catalog.stats();
+        long largest = 0;
+        long total = 0;
+        for (ShardedCatalog.ShardStats shard : stats) {
+          largest = Math.max(largest, shard.usedHeapBytes);
+          total += shard.usedHeapBytes;
+        }
+        VideoFlags flags = new VideoFlags();
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < 20; i++) {
+          found += catalog.searchVideosWithTag("#topic" + (i * 7), flags).size();
+        }
+        double searchMillis = (System.nanoTime() - start) / 1e6 / 20;
+        System.err.printf("%d shard(s): largest shard heap %d MB, total heap %d MB, "
+                + "tag search %.1f ms (%d results)%n", shards, largest >> 20, total >> 20,
+            searchMillis, found / 20);
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ShardedCatalogTest {
+
+  private static final int VIDEOS = 30_000;
+  private static final int SHARDS = 3;
+
+  @TempDir
+  static Path directory;
+
+  private static ShardedCatalog catalog;
+
+  @BeforeAll
+  public static void launchShards() throws Exception {
+    File file = directory.resolve("catalog.txt").toFile();
+    try (PrintWriter out = new PrintWriter(file)) {
+      // Written in reverse so that title order differs from file order.
+      for (int i = VIDEOS - 1; i >= 0; i--) {
+        out.printf("Video %05d | video_%05d | #tag%d , #all%n", i, i, i % 10);
+      }
+    }
+    catalog = ShardedCatalog.launch(SHARDS, file, "-Xmx128m");
+  }
+
+  @AfterAll
+  public static void stopShards() throws Exception {
+    catalog.close();
+  }
+
+  private static List<String> titles(List<Video> videos) {
+    return videos.stream().map(Video::getTitle).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testGetVideoIsRoutedToItsShard() throws Exception {
+    Video video = catalog.getVideo("video_01234");
+    assertEquals("Video 01234", video.getTitle());
+    assertEquals(List.of("#tag4", "#all"), video.getTags());
+    assertEquals(ShardServer.owner("video_01234", SHARDS), video.getIndex() % SHARDS);
+    assertNull(catalog.getVideo("no_such_video"));
+  }
+
+  @Test
+  public void testSearchesAreMergedInTitleOrder() throws Exception {
+    List<String> expected = new ArrayList<>();
+    for (int i = 10; i < 20; i++) {
+      expected.add(String.format("Video 000%d", i));
+    }
+    assertEquals(expected, titles(catalog.searchVideos("video 0001", new VideoFlags())));
+
+    var flags = new VideoFlags();
+    flags.flag(catalog.getVideo("video_00007"), "Not supplied");
+    List<Video> tagged = catalog.searchVideosWithTag("#TAG7", flags);
+    assertEquals(VIDEOS / 10 - 1, tagged.size());
+    assertEquals("Video 00017", tagged.get(0).getTitle());
+    for (int i = 1; i < tagged.size(); i++) {
+      assertTrue(tagged.get(i - 1).getTitle().compareTo(tagged.get(i).getTitle()) < 0);
+    }
+  }
+
+  @Test
+  public void testShardsSplitTheCatalogEvenly() throws Exception {
+    int total = 0;
+    for (ShardedCatalog.ShardStats shard : catalog.stats()) {
+      assertTrue(Math.abs(shard.videos - VIDEOS / SHARDS) < VIDEOS / SHARDS / 10,
+          String.valueOf(shard.videos));
+      total += shard.videos;
+    }
+    assertEquals(VIDEOS, total);
+  }
+
+  @Test
+  public void testGlobalIndexNeverWrapsAround() {
+    assertEquals(7, ShardServer.globalIndex(2, 1, SHARDS));
+    assertThrows(ArithmeticException.class,
+        () -> ShardServer.globalIndex(Integer.MAX_VALUE / 2, 1, SHARDS));
+  }
+
+  @Test
+  public void testFailedShardLeavesNoStaleAnswers() throws Exception {
+    var library = new VideoLibrary();
+    var failNext = new AtomicBoolean();
+    var servers = new ArrayList<CommandServer>();
+    var addresses = new ArrayList<InetSocketAddress>();
+    try {
+      for (int i = 0; i < SHARDS; i++) {
+        int shard = i;
+        var handler = ShardServer.handler(new VideoLibrary(CatalogSource.resource("/videos.txt"),
+            id -> ShardServer.owner(id, SHARDS) == shard), shard, SHARDS);
+        var server = new CommandServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+            1, () -> request -> {
+              if (shard == 0 && failNext.getAndSet(false)) {
+                throw new IllegalStateException("boom");
+              }
+              return handler.handle(request);
+            });
+        servers.add(server);
+        addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()));
+      }
+      try (var shards = new ShardedCatalog(addresses)) {
+        failNext.set(true);
+        var thrown = assertThrows(IOException.class,
+            () -> shards.searchVideos("", new VideoFlags()));
+        assertTrue(thrown.getMessage().contains("boom"), thrown.getMessage());
+
+        assertEquals(List.of("Amazing Cats", "Another Cat Video"),
+            titles(shards.searchVideos("cat", new VideoFlags())));
+        for (var video : library.inTitleOrder(library.withTitleText(""))) {
+          assertEquals(video.getTitle(), shards.getVideo(video.getVideoId()).getTitle());
+        }
+      }
+    } finally {
+      for (var server : servers) {
+        server.close();
+      }
+    }
+  }
+}
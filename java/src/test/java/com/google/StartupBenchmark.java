@@ -0,0 +1,121 @@
+package com.google;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how long a fresh {@link Run} process takes to show its first prompt and to answer its
+ * first command, and its peak resident memory by then: on a JVM with and without the warm-up and
+ * the class-data sharing archive built by {@code mvn -Pcds package}. Not run by the test suite;
+ * see the README for how to run benchmarks. Arguments: the application jar and the archive, by
+ * default those in target/. Configurations whose files are missing are skipped.
+ */
+public class StartupBenchmark {
+
+  private static final int RUNS = 7;
+
+  public static void main(String[] args) throws Exception {
+    String jar = args.length > 0 ? args[0] : "target/java-youtube-challenge-1.0.0.jar";
+    String archive = args.length > 1 ? args[1] : "target/run.jsa";
+    if (!new File(jar).exists()) {
+      System.err.println("No " + jar + "; build it with mvn -Pcds package");
+      return;
+    }
+    measure("default", java(jar, "-Xshare:auto"));
+    measure("warm-up", java(jar, "-Dstartup.warmup=true"));
+    if (new File(archive).exists()) {
+      measure("archive", java(jar, "-XX:SharedArchiveFile=" + archive));
+      measure("archive + warm-up", java(jar, "-XX:SharedArchiveFile=" + archive,
+          "-Dstartup.warmup=true"));
+    } else {
+      System.err.println("No " + archive + "; skipping the archive configurations");
+    }
+  }
+
+  private static List<String> java(String jar, String... options) {
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(Arrays.asList(options));
+    command.addAll(List.of("-cp", jar, Run.class.getName()));
+    return command;
+  }
+
+  private static void measure(String name, List<String> command) throws Exception {
+    long[] prompt = new long[RUNS];
+    long[] answer = new long[RUNS];
+    long[] rss = new long[RUNS];
+    for (int run = 0; run < RUNS; run++) {
+      long[] result = launch(command);
+      prompt[run] = result[0];
+      answer[run] = result[1];
+      rss[run] = result[2];
+    }
+    Arrays.sort(prompt);
+    Arrays.sort(answer);
+    Arrays.sort(rss);
+    System.err.printf("%-18s first prompt %4d ms, first answer %4d ms, peak RSS %s "
+            + "(medians of %d)%n", name, prompt[RUNS / 2] / 1_000_000,
+        answer[RUNS / 2] / 1_000_000, rss[RUNS / 2] < 0 ? "n/a" : (rss[RUNS / 2] >> 10) + " MB",
+        RUNS);
+  }
+
+  /**
+   * Returns the nanoseconds from launch to the first prompt and to the first answer, and the peak
+   * resident memory in kB by then, or -1 where it cannot be read.
+   */
+  private static long[] launch(List<String> command) throws Exception {
+    long start = System.nanoTime();
+    Process process = new ProcessBuilder(command)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .start();
+    try (OutputStream in = process.getOutputStream()) {
+      in.write("SEARCH_VIDEOS cat\n".getBytes(StandardCharsets.UTF_8));
+    }
+    long prompt = -1;
+    long answer = -1;
+    StringBuilder output = new StringBuilder();
+    InputStream out = process.getInputStream();
+    while (answer < 0) {
+      int c = out.read();
+      if (c < 0) {
+        break;
+      }
+      output.append((char) c);
+      if (prompt < 0 && output.indexOf("YT> ") >= 0) {
+        prompt = System.nanoTime() - start;
+      }
+      if (output.indexOf("Would you like to play") >= 0) {
+        answer = System.nanoTime() - start;
+      }
+    }
+    long rss = peakResidentKilobytes(process.pid());
+    process.destroy();
+    process.waitFor();
+    if (answer < 0) {
+      throw new IllegalStateException("Run did not answer: " + output);
+    }
+    return new long[] {prompt, answer, rss};
+  }
+
+  /** Reads the high-water mark of the process's resident set on Linux; -1 elsewhere. */
+  private static long peakResidentKilobytes(long pid) {
+    try {
+      for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+        if (line.startsWith("VmHWM:")) {
+          return Long.parseLong(line.replaceAll("\\D", ""));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Not Linux, or the process is gone.
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,102 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class SuggestionIndexTest extends TestBase {
+
+  @Test
+  public void testSuggestRanksTagsBeforeTitles() {
+    videoPlayer.suggest("Ca");
+
+    var lines = getOutputLines();
+    assertEquals(5, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Here are the suggestions for Ca:"));
+    assertThat(lines[1], containsString("1) #cat"));
+    assertThat(lines[2], containsString("2) #career"));
+    assertThat(lines[3], containsString("3) Amazing Cats"));
+    assertThat(lines[4], containsString("4) Another Cat Video"));
+  }
+
+  @Test
+  public void testSuggestSkipsFlaggedTitles() {
+    videoPlayer.flagVideo("amazing_cats_video_id");
+    outputStream.reset();
+    videoPlayer.suggest("amaz");
+    videoPlayer.suggest("#AN");
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("No suggestions for amaz"));
+    assertThat(lines[2], containsString("1) #animal"));
+  }
+
+  @Test
+  public void testSuggestFollowsLibraryChanges() {
+    var library = new VideoLibrary();
+    var flags = new VideoFlags();
+    assertEquals(List.of(), library.suggestions().suggest("zeb", flags, 5));
+
+    library.addVideo("Zebra Crossing", "zebra_video_id", List.of("#zebra"));
+    assertEquals(List.of("#zebra", "Zebra Crossing"),
+        library.suggestions().suggest("zeb", flags, 5));
+    assertEquals(List.of("Zebra Crossing"),
+        library.suggestions().suggest("cross", flags, 5));
+  }
+
+  @Test
+  public void testFlaggedTitlesDoNotStarveSuggestions() {
+    var library = new VideoLibrary();
+    var flags = new VideoFlags();
+    for (int i = 0; i < 2 * SuggestionIndex.TOP_K; i++) {
+      String id = String.format("zoo_a%02d", i);
+      library.addVideo(String.format("Zoo A%02d", i), id, List.of());
+      flags.flag(library.getVideo(id), "");
+    }
+    library.addVideo("Zoo B", "zoo_b", List.of());
+
+    assertEquals(List.of("Zoo B"), library.suggestions().suggest("zoo", flags, 5));
+  }
+
+  @Test
+  public void testIncrementalUpdatesMatchAFreshBuild() {
+    var random = new Random(42);
+    var library = new VideoLibrary();
+    var flags = new VideoFlags();
+    var suggestions = library.suggestions();
+    String[] words = {"cat", "cats", "catalog", "car", "dog", "do", "dove", "a"};
+    List<String> ids = new ArrayList<>();
+    for (int round = 0; round < 2000; round++) {
+      String title =
+          words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+      List<String> tags = List.of("#" + words[random.nextInt(words.length)]);
+      int choice = random.nextInt(3);
+      if (choice == 0 || ids.isEmpty()) {
+        String id = "video_" + round;
+        library.addVideo(title, id, tags);
+        ids.add(id);
+      } else if (choice == 1) {
+        library.updateVideo(title, ids.get(random.nextInt(ids.size())), tags);
+      } else {
+        library.removeVideo(ids.remove(random.nextInt(ids.size())));
+      }
+    }
+
+    var fresh = new SuggestionIndex(library);
+    for (String word : words) {
+      for (int length = 0; length <= word.length(); length++) {
+        String prefix = word.substring(0, length);
+        assertEquals(fresh.suggest(prefix, flags, 20), suggestions.suggest(prefix, flags, 20),
+            prefix);
+        assertEquals(fresh.suggest("#" + prefix, flags, 20),
+            suggestions.suggest("#" + prefix, flags, 20), prefix);
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TextNormalizerTest {
+
+  private final TextNormalizer normalizer = new TextNormalizer(true);
+
+  @Test
+  public void testFoldsCaseIndependentlyOfLocale() {
+    assertEquals("istanbul", normalizer.normalize("\u0130STANBUL"));
+    assertEquals("istanbul", normalizer.normalize("\u0131stanbul"));
+    assertEquals("strasse", normalizer.normalize("STRA\u00dfE"));
+  }
+
+  @Test
+  public void testFoldsCompatibilityCharacters() {
+    assertEquals("cat 42", normalizer.normalize("\uff23\uff41\uff54 \uff14\uff12"));
+    assertEquals("fish", normalizer.normalize("\ufb01sh"));
+  }
+
+  @Test
+  public void testStripsAccentsUnlessDisabled() {
+    assertEquals("creme brulee", normalizer.normalize("Cr\u00e8me Bru\u0302le\u0301e"));
+    assertEquals("cr\u00e8me br\u00fbl\u00e9e",
+        new TextNormalizer(false).normalize("Cr\u00e8me Bru\u0302le\u0301e"));
+  }
+
+  @Test
+  public void testReadsPropertiesWhenAsked() {
+    String previous = System.getProperty("search.stripAccents");
+    try {
+      System.setProperty("search.stripAccents", "false");
+      assertFalse(TextNormalizer.fromProperties().stripsAccents());
+      System.clearProperty("search.stripAccents");
+      assertTrue(TextNormalizer.fromProperties().stripsAccents());
+    } finally {
+      if (previous != null) {
+        System.setProperty("search.stripAccents", previous);
+      }
+    }
+  }
+
+  @Test
+  public void testSplitsWords() {
+    assertEquals(List.of("another", "cat", "video"),
+        TextNormalizer.words("another cat-video!"));
+    assertEquals(List.of("bru\u0302le\u0301e"), TextNormalizer.words("bru\u0302le\u0301e"));
+    assertEquals(List.of(), TextNormalizer.words(" #! "));
+  }
+}
@@ -1,7 +1,11 @@
 package com.google;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
@@ -42,4 +46,89 @@ public class VideoLibraryTest {
     assertEquals("nothing_video_id", video.getVideoId());
     assertTrue(video.getTags().isEmpty());
   }
+
+  @Test
+  public void testLibraryAssignsDenseIndexes() {
+    for (int i = 0; i < videoLibrary.indexCount(); i++) {
+      assertEquals(i, videoLibrary.getVideo(i).getIndex());
+    }
+    assertEquals(5, videoLibrary.allVideos().cardinality());
+  }
+
+  @Test
+  public void testLibraryListsSelectionInTitleOrder() {
+    var selection = videoLibrary.matching(v -> v.getTags().contains("#cat"));
+    var videos = videoLibrary.inTitleOrder(selection);
+
+    assertEquals(2, videos.size());
+    assertEquals("Amazing Cats", videos.get(0).getTitle());
+    assertEquals("Another Cat Video", videos.get(1).getTitle());
+  }
+
+  @Test
+  public void testLibraryAddsVideo() {
+    assertTrue(videoLibrary.addVideo("Cat Facts", "cat_facts_video_id", List.of("#cat")));
+    assertFalse(videoLibrary.addVideo("Cat Facts", "cat_facts_video_id", List.of("#cat")));
+
+    assertEquals(6, videoLibrary.getVideos().size());
+    assertEquals(3, videoLibrary.withTag("#CAT").cardinality());
+    var videos = videoLibrary.inTitleOrder(videoLibrary.withTitleToken("cat"));
+    assertEquals("Cat Facts", videos.get(2).getTitle());
+  }
+
+  @Test
+  public void testLibraryUpdatesVideo() {
+    var index = videoLibrary.getVideo("funny_dogs_video_id").getIndex();
+    assertTrue(videoLibrary.updateVideo("Aardvark Dogs", "funny_dogs_video_id", List.of("#pet")));
+    assertFalse(videoLibrary.updateVideo("Ghost", "ghost_video_id", List.of()));
+
+    var video = videoLibrary.getVideo("funny_dogs_video_id");
+    assertEquals(index, video.getIndex());
+    assertTrue(videoLibrary.withTag("#dog").isEmpty());
+    assertTrue(videoLibrary.withTitleToken("funny").isEmpty());
+    assertEquals(video, videoLibrary.inTitleOrder(videoLibrary.allVideos()).get(0));
+  }
+
+  @Test
+  public void testLibraryRemovesVideo() {
+    var index = videoLibrary.getVideo("amazing_cats_video_id").getIndex();
+    assertTrue(videoLibrary.removeVideo("amazing_cats_video_id"));
+    assertFalse(videoLibrary.removeVideo("amazing_cats_video_id"));
+
+    assertNull(videoLibrary.getVideo("amazing_cats_video_id"));
+    assertNull(videoLibrary.getVideo(index));
+    assertEquals(4, videoLibrary.allVideos().cardinality());
+    assertEquals(1, videoLibrary.withTag("#cat").cardinality());
+    assertTrue(videoLibrary.addVideo("Amazing Cats", "amazing_cats_video_id", List.of()));
+    assertNotEquals(index, videoLibrary.getVideo("amazing_cats_video_id").getIndex());
+  }
+
+  @Test
+  public void testLibrarySearchesNormalizedText() {
+    assertTrue(videoLibrary.addVideo("Caf\u00e9 Stra\u00dfe", "cafe_video_id",
+        List.of("#\u00c9clair")));
+    var cafe = videoLibrary.getVideo("cafe_video_id");
+
+    assertEquals(List.of(cafe), videoLibrary.inTitleOrder(videoLibrary.withTitleText("CAFE")));
+    assertEquals(List.of(cafe),
+        videoLibrary.inTitleOrder(videoLibrary.withTitleText("\uff43\uff41\uff46\uff45 strasse")));
+    assertEquals(List.of(cafe), videoLibrary.inTitleOrder(videoLibrary.withTagText("eclair")));
+    assertEquals(1, videoLibrary.withTag("#ECLAIR").cardinality());
+  }
+
+  @Test
+  public void testLibrarySearchesTitleTextAcrossWords() {
+    var videos = videoLibrary.inTitleOrder(videoLibrary.withTitleText("CAT V"));
+
+    assertEquals(1, videos.size());
+    assertEquals("Another Cat Video", videos.get(0).getTitle());
+    assertEquals(5, videoLibrary.withTitleText("").cardinality());
+    assertTrue(videoLibrary.withTitleText("cats video").isEmpty());
+  }
+
+  @Test
+  public void testSharedLibraryIsLoadedOnce() {
+    assertSame(VideoLibrary.shared(), VideoLibrary.shared());
+    assertEquals(5, VideoLibrary.shared().size());
+  }
 }
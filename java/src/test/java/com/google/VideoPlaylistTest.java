@@ -0,0 +1,51 @@
+package com.google;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class VideoPlaylistTest {
+
+  private static Video video(int index) {
+    return new Video(index, "Video " + index, "video_" + index, List.of());
+  }
+
+  @Test
+  public void testLargePlaylistMembership() {
+    var playlist = new VideoPlaylist("big");
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(playlist.addVideo(video(i * 7)));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(playlist.addVideo(video(i * 7)));
+    }
+    assertEquals(1000, playlist.size());
+
+    for (int i = 0; i < 1000; i += 2) {
+      assertTrue(playlist.removeVideo(video(i * 7)));
+    }
+    assertFalse(playlist.removeVideo(video(0)));
+    assertEquals(500, playlist.size());
+    assertEquals(7, playlist.indexAt(0));
+    assertTrue(playlist.addVideo(video(0)));
+    assertEquals(0, playlist.indexAt(500));
+  }
+
+  @Test
+  public void testPlaylistResolvesAgainstLibrary() {
+    var library = new VideoLibrary();
+    var playlist = new VideoPlaylist("cats");
+    playlist.addVideo(library.getVideo("amazing_cats_video_id"));
+    playlist.addVideo(library.getVideo("another_cat_video_id"));
+
+    library.updateVideo("Amazing Cats II", "amazing_cats_video_id", List.of("#cat"));
+    library.removeVideo("another_cat_video_id");
+
+    var videos = playlist.getVideos(library);
+    assertEquals(1, videos.size());
+    assertEquals("Amazing Cats II", videos.get(0).getTitle());
+  }
+}
@@ -0,0 +1,82 @@
+package com.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+
+public class VideoQueryTest extends TestBase {
+
+  @Test
+  public void testQueryByTagAndTitle() {
+    videoPlayer.queryVideos("tag:#cat AND title:amazing");
+
+    var lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[0], containsString("Here are the results for tag:#cat AND title:amazing:"));
+    assertThat(lines[1],
+        containsString("1) Amazing Cats (amazing_cats_video_id) [#cat #animal]"));
+  }
+
+  @Test
+  public void testQueryExcludesFlagged() {
+    videoPlayer.flagVideo("amazing_cats_video_id");
+    videoPlayer.queryVideos("tag:#animal AND NOT flagged");
+
+    var lines = getOutputLines();
+    assertEquals(4, lines.length, outputStream.toString());
+    assertThat(lines[2], containsString("1) Another Cat Video"));
+    assertThat(lines[3], containsString("2) Funny Dogs"));
+  }
+
+  @Test
+  public void testQueryWithParenthesesAndOr() {
+    videoPlayer.queryVideos("(tag:#dog OR tag:#google) AND NOT title:life");
+
+    var lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("1) Funny Dogs"));
+  }
+
+  @Test
+  public void testQueryOnlyFlagged() {
+    videoPlayer.flagVideo("nothing_video_id", "boring");
+    videoPlayer.queryVideos("flagged");
+
+    var lines = getOutputLines();
+    assertEquals(3, lines.length, outputStream.toString());
+    assertThat(lines[2], containsString(
+        "1) Video about nothing (nothing_video_id) [] - FLAGGED (reason: boring)"));
+  }
+
+  @Test
+  public void testQueryNoResults() {
+    videoPlayer.queryVideos("tag:#cat AND tag:#dog");
+    assertThat(outputStream.toString(),
+        containsString("No query results for tag:#cat AND tag:#dog"));
+  }
+
+  @Test
+  public void testQueryInvalid() {
+    videoPlayer.queryVideos("tag:#cat AND (title:cats");
+    assertThat(outputStream.toString(),
+        containsString("Cannot run query: Missing closing parenthesis"));
+  }
+
+  @Test
+  public void testQueryFieldsIgnoreDefaultLocale() {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(Locale.forLanguageTag("tr"));
+    try {
+      videoPlayer.queryVideos("TITLE:amazing");
+    } finally {
+      Locale.setDefault(locale);
+    }
+
+    var lines = getOutputLines();
+    assertEquals(2, lines.length, outputStream.toString());
+    assertThat(lines[1], containsString("1) Amazing Cats"));
+  }
+}